@@ -0,0 +1,228 @@
+package com.github.bassaer.chatmessageview.store;
+
+import android.net.Uri;
+
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.PictureSource;
+import com.github.bassaer.chatmessageview.models.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Binary record of a message in the log.
+ * Fixed fields come first, so the status can be rewritten in place at {@link #STATUS_OFFSET}.
+ * <pre>
+ * int length, long id, long createdAt, int status, int userId, byte flags, byte type,
+ * string username, string text, byte pictureKind, picture
+ * </pre>
+ * Pictures are kept in the {@link PictureStore} and the record has only the hash.
+ */
+class MessageCodec {
+
+    /**
+     * Size of the length field before the payload
+     */
+    static final int LENGTH_SIZE = 4;
+
+    static final int ID_OFFSET = LENGTH_SIZE;
+    static final int TIME_OFFSET = ID_OFFSET + 8;
+    static final int STATUS_OFFSET = TIME_OFFSET + 8;
+    static final int USER_ID_OFFSET = STATUS_OFFSET + 4;
+    static final int FLAGS_OFFSET = USER_ID_OFFSET + 4;
+
+    /**
+     * Fixed fields read to build the index
+     */
+    static final int HEADER_SIZE = FLAGS_OFFSET + 1;
+
+    static final int FLAG_RIGHT = 1;
+    static final int FLAG_USERNAME_VISIBLE = 1 << 1;
+    static final int FLAG_ICON_VISIBLE = 1 << 2;
+    static final int FLAG_HIDE_ICON = 1 << 3;
+    static final int FLAG_NO_USER = 1 << 4;
+
+    private static final int PICTURE_NONE = 0;
+    private static final int PICTURE_URI = 1;
+    /**
+     * Picture embedded in the record by older versions
+     */
+    private static final int PICTURE_BYTES = 2;
+    private static final int PICTURE_HASH = 3;
+
+    /**
+     * New types are appended to {@link Message.Type}, so ordinals of stored types do not change
+     */
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private static final String CHARSET = "UTF-8";
+
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+
+    private final PictureStore mPictureStore;
+
+    MessageCodec(PictureStore pictureStore) {
+        mPictureStore = pictureStore;
+    }
+
+    /**
+     * Encode the message with the length field
+     * @param message message to store
+     * @return record bytes
+     * @throws IOException if the picture could not be encoded
+     */
+    byte[] encode(Message message) throws IOException {
+        mBuffer.reset();
+        DataOutputStream out = new DataOutputStream(mBuffer);
+        User user = message.getUser();
+        out.writeInt(0);
+        out.writeLong(message.getId());
+        out.writeLong(message.getTimeInMillis());
+        out.writeInt(message.getStatus());
+        out.writeInt(user != null ? user.getId() : 0);
+        out.writeByte(getFlags(message));
+        out.writeByte(message.getType() != null ? message.getType().ordinal() : 0);
+        writeString(out, user != null ? user.getName() : null);
+        writeString(out, message.getMessageText());
+        writePicture(out, message);
+        out.flush();
+        byte[] record = mBuffer.toByteArray();
+        int length = record.length - LENGTH_SIZE;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+        return record;
+    }
+
+    /**
+     * Decode the payload after the length field
+     * @param in payload
+     * @param users resolves users by the stored id
+     * @return restored message
+     * @throws IOException if the payload is broken
+     */
+    Message decode(DataInputStream in, MessageStore.UserResolver users) throws IOException {
+        long id = in.readLong();
+        long createdAt = in.readLong();
+        int status = in.readInt();
+        int userId = in.readInt();
+        int flags = in.readByte();
+        int type = in.readByte();
+        String username = readString(in);
+        Message message = new Message.Builder()
+                .setId(id)
+                .setCreatedAt(createdAt)
+                .setStatus(status)
+                .setUser((flags & FLAG_NO_USER) != 0 ? null : users.resolve(userId, username))
+                .setRightMessage((flags & FLAG_RIGHT) != 0)
+                .setUsernameVisibility((flags & FLAG_USERNAME_VISIBLE) != 0)
+                .setUserIconVisibility((flags & FLAG_ICON_VISIBLE) != 0)
+                .hideIcon((flags & FLAG_HIDE_ICON) != 0)
+                .setType(TYPES[type])
+                .setMessageText(readString(in))
+                .build();
+        readPicture(in, message);
+        return message;
+    }
+
+    /**
+     * @param message message to store
+     * @return flags of the record, which are also kept in the index
+     */
+    static int getFlags(Message message) {
+        int flags = 0;
+        if (message.isRightMessage()) {
+            flags |= FLAG_RIGHT;
+        }
+        if (message.getUsernameVisibility()) {
+            flags |= FLAG_USERNAME_VISIBLE;
+        }
+        if (message.getIconVisibility()) {
+            flags |= FLAG_ICON_VISIBLE;
+        }
+        if (message.isIconHided()) {
+            flags |= FLAG_HIDE_ICON;
+        }
+        if (message.getUser() == null) {
+            flags |= FLAG_NO_USER;
+        }
+        return flags;
+    }
+
+    private void writePicture(DataOutputStream out, Message message) throws IOException {
+        PictureSource source = message.getPictureSource();
+        if (source != null && source.getUri() != null) {
+            out.writeByte(PICTURE_URI);
+            writeString(out, source.getUri().toString());
+            return;
+        }
+        String hash = putPicture(message);
+        if (hash != null) {
+            out.writeByte(PICTURE_HASH);
+            writeString(out, hash);
+        } else {
+            out.writeByte(PICTURE_NONE);
+        }
+    }
+
+    /**
+     * Add the picture to the picture store unless it is already there
+     * @return hash of the picture, or null if the message has no picture
+     */
+    private String putPicture(Message message) throws IOException {
+        PictureSource source = message.getPictureSource();
+        if (source != null) {
+            String hash = mPictureStore.getHash(source);
+            if (hash != null) {
+                //Restored picture is not read again
+                return hash;
+            }
+            if (source.getBytes() != null) {
+                return mPictureStore.put(source.getBytes());
+            }
+            if (source.getPath() != null) {
+                return mPictureStore.put(new File(source.getPath()));
+            }
+        }
+        return message.getPicture() != null ? mPictureStore.put(message.getPicture()) : null;
+    }
+
+    private void readPicture(DataInputStream in, Message message) throws IOException {
+        int kind = in.readByte();
+        if (kind == PICTURE_URI) {
+            message.setPictureSource(PictureSource.fromUri(Uri.parse(readString(in))));
+        } else if (kind == PICTURE_HASH) {
+            //Thumbnail is enough for the bubble
+            message.setPictureSource(mPictureStore.getThumbnailSource(readString(in)));
+        } else if (kind == PICTURE_BYTES) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            //Decoded when shown
+            message.setPictureSource(PictureSource.fromBytes(bytes));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
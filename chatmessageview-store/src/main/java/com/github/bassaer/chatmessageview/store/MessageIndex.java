@@ -0,0 +1,294 @@
+package com.github.bassaer.chatmessageview.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index file of the message store, opened as a memory-mapped buffer.
+ * Entries of fixed size are sorted by created time, so the newest messages are at the end of the file.
+ * Opening reads only the header, and a page of the file is read when its entries are first used,
+ * so showing the latest messages does not depend on the history size.
+ * The header also keeps the last message and the status of the latest read receipt,
+ * which is the status of the right messages up to it unless they are flagged with {@link #FLAG_STATUS_OVERRIDE}.
+ * <pre>
+ * header: int magic, int version, long committed log length, long max id, int count, int override count,
+ *         long watermark createdAt, long watermark id, int watermark status, reserved
+ * entry: long createdAt, long id, long offset, int userId, int flags
+ * </pre>
+ */
+class MessageIndex {
+
+    /**
+     * Written as the committed length while entries are moved, so the index is rebuilt if it is interrupted
+     */
+    static final long DIRTY = -1;
+
+    /**
+     * Flag of a right message in the range of the watermark whose status was changed or which was added later,
+     * so the next receipt changes its status again
+     */
+    static final int FLAG_STATUS_OVERRIDE = 1 << 16;
+
+    private static final int MAGIC = 0x434d5649;
+    private static final int VERSION = 3;
+
+    static final int HEADER_SIZE = 64;
+    private static final int COMMITTED_OFFSET = 8;
+    private static final int MAX_ID_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int OVERRIDE_COUNT_OFFSET = 28;
+    private static final int WATERMARK_TIME_OFFSET = 32;
+    private static final int WATERMARK_ID_OFFSET = 40;
+    private static final int WATERMARK_STATUS_OFFSET = 48;
+
+    static final int ENTRY_SIZE = 32;
+    private static final int TIME_OFFSET = 0;
+    private static final int ID_OFFSET = 8;
+    private static final int LOG_OFFSET = 16;
+    private static final int USER_ID_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 28;
+
+    /**
+     * Number of entries mapped for a new file
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private int mCapacity;
+
+    /**
+     * Number of entries in use
+     */
+    private int mSize;
+
+    private long mMaxId;
+
+    MessageIndex(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Map the file and read the header
+     * @return length of the log covered by the entries, or {@link #DIRTY} if the entries were cleared to be rebuilt
+     * @throws IOException if the file could not be mapped
+     */
+    long open() throws IOException {
+        long length = mFile.length();
+        int capacity = length > HEADER_SIZE ? (int) ((length - HEADER_SIZE) / ENTRY_SIZE) : 0;
+        map(Math.max(capacity, INITIAL_CAPACITY));
+        if (length < HEADER_SIZE || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            //New file or older format
+            reset();
+            return DIRTY;
+        }
+        long committed = mBuffer.getLong(COMMITTED_OFFSET);
+        mSize = mBuffer.getInt(COUNT_OFFSET);
+        mMaxId = mBuffer.getLong(MAX_ID_OFFSET);
+        if (committed < 0 || mSize < 0 || mSize > mCapacity) {
+            reset();
+            return DIRTY;
+        }
+        //Appended entries are at the end, and the ones after the commit are added again from the log
+        while (mSize > 0 && getOffset(mSize - 1) >= committed) {
+            mSize--;
+        }
+        return committed;
+    }
+
+    /**
+     * Clear all entries
+     */
+    void reset() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mSize = 0;
+        mMaxId = 0;
+        setWatermark(Long.MIN_VALUE, 0, 0);
+        setOverrideCount(0);
+        commit(0);
+    }
+
+    /**
+     * Make the entries valid up to the log length
+     * @param logLength length of the log covered by the entries
+     */
+    void commit(long logLength) {
+        mBuffer.putLong(MAX_ID_OFFSET, mMaxId);
+        mBuffer.putInt(COUNT_OFFSET, mSize);
+        mBuffer.putLong(COMMITTED_OFFSET, logLength);
+    }
+
+    /**
+     * Mark the index to be rebuilt until the next commit, such as before entries are moved
+     */
+    void markDirty() {
+        mBuffer.putLong(COMMITTED_OFFSET, DIRTY);
+    }
+
+    void close() throws IOException {
+        //The mapping is released when the buffer is collected
+        mBuffer = null;
+        mFile.close();
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    long getMaxId() {
+        return mMaxId;
+    }
+
+    long getTime(int position) {
+        return mBuffer.getLong(position * ENTRY_SIZE + HEADER_SIZE + TIME_OFFSET);
+    }
+
+    long getId(int position) {
+        return mBuffer.getLong(position * ENTRY_SIZE + HEADER_SIZE + ID_OFFSET);
+    }
+
+    long getOffset(int position) {
+        return mBuffer.getLong(position * ENTRY_SIZE + HEADER_SIZE + LOG_OFFSET);
+    }
+
+    int getUserId(int position) {
+        return mBuffer.getInt(position * ENTRY_SIZE + HEADER_SIZE + USER_ID_OFFSET);
+    }
+
+    int getFlags(int position) {
+        return mBuffer.getInt(position * ENTRY_SIZE + HEADER_SIZE + FLAGS_OFFSET);
+    }
+
+    void setFlags(int position, int flags) {
+        mBuffer.putInt(position * ENTRY_SIZE + HEADER_SIZE + FLAGS_OFFSET, flags);
+    }
+
+    /**
+     * @return created time of the last message of the latest receipt, or {@link Long#MIN_VALUE} if it is unknown
+     */
+    long getWatermarkTime() {
+        return mBuffer.getLong(WATERMARK_TIME_OFFSET);
+    }
+
+    long getWatermarkId() {
+        return mBuffer.getLong(WATERMARK_ID_OFFSET);
+    }
+
+    int getWatermarkStatus() {
+        return mBuffer.getInt(WATERMARK_STATUS_OFFSET);
+    }
+
+    void setWatermark(long time, long id, int status) {
+        mBuffer.putLong(WATERMARK_TIME_OFFSET, time);
+        mBuffer.putLong(WATERMARK_ID_OFFSET, id);
+        mBuffer.putInt(WATERMARK_STATUS_OFFSET, status);
+    }
+
+    /**
+     * @return number of entries which may have {@link #FLAG_STATUS_OVERRIDE}
+     */
+    int getOverrideCount() {
+        return mBuffer.getInt(OVERRIDE_COUNT_OFFSET);
+    }
+
+    void setOverrideCount(int count) {
+        mBuffer.putInt(OVERRIDE_COUNT_OFFSET, count);
+    }
+
+    /**
+     * Insert the entry and move the following entries
+     * @param position position which keeps the entries sorted
+     */
+    void insert(int position, long time, long id, long offset, int userId, int flags) throws IOException {
+        if (mSize == mCapacity) {
+            map(mCapacity * 2);
+        }
+        int start = position * ENTRY_SIZE + HEADER_SIZE;
+        if (position < mSize) {
+            byte[] entries = new byte[(mSize - position) * ENTRY_SIZE];
+            mBuffer.position(start);
+            mBuffer.get(entries);
+            mBuffer.position(start + ENTRY_SIZE);
+            mBuffer.put(entries);
+        }
+        mBuffer.putLong(start + TIME_OFFSET, time);
+        mBuffer.putLong(start + ID_OFFSET, id);
+        mBuffer.putLong(start + LOG_OFFSET, offset);
+        mBuffer.putInt(start + USER_ID_OFFSET, userId);
+        mBuffer.putInt(start + FLAGS_OFFSET, flags);
+        mSize++;
+        mMaxId = Math.max(mMaxId, id);
+    }
+
+    /**
+     * Find the entry of the message
+     * @return position of the entry, or -1 if the message is not stored
+     */
+    int indexOf(long time, long id) {
+        for (int i = lowerBound(time); i < mSize && getTime(i) == time; i++) {
+            if (getId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the entry by id from the newest one.
+     * This reads the entries one by one, so use {@link #indexOf(long, long)} when the created time is known.
+     */
+    int findById(long id) {
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (getId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the first position whose time is not older than the time
+     */
+    int lowerBound(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the first position whose time is newer than the time
+     */
+    int upperBound(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Map the header and the entries up to the capacity, which extends the file
+     */
+    private void map(int capacity) throws IOException {
+        mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+        mCapacity = capacity;
+    }
+}
@@ -0,0 +1,421 @@
+package com.github.bassaer.chatmessageview.store;
+
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Messages stored in a directory on local disk.
+ * Each message is appended to a log file once, and a memory-mapped index file keeps the created time,
+ * id, log offset, user id and flags of the messages sorted by created time.
+ * Opening reads only the header of the index, and only the entries and records in the requested range are read,
+ * so the cost of opening and loading a page does not depend on the history size.
+ * Records written before the process is killed are kept, and a broken tail of the files is repaired on open.
+ * Pictures are kept in the {@link PictureStore} in the same directory.
+ * Methods can be called from any thread, but the files are read and written in the calling thread.
+ */
+public class MessageStore implements Closeable {
+
+    public interface UserResolver {
+        /**
+         * Return the user of a restored message
+         * @param id stored user id
+         * @param name stored user name
+         * @return user such as the one with the icon
+         */
+        User resolve(int id, String name);
+    }
+
+    public interface OnMessageRestoredListener {
+        /**
+         * Called on the reading thread before the message is returned,
+         * so settings which are not stored such as formatters can be set
+         * @param message restored message
+         */
+        void onMessageRestored(Message message);
+    }
+
+    private static final String LOG_FILE_NAME = "messages.log";
+    private static final String INDEX_FILE_NAME = "messages.idx";
+    private static final String PICTURE_DIRECTORY_NAME = "pictures";
+
+    private final RandomAccessFile mLog;
+    private final MessageIndex mIndex;
+    private final PictureStore mPictureStore;
+    private final MessageCodec mCodec;
+
+    /**
+     * Length of the log which consists of complete records
+     */
+    private long mLogLength;
+
+    private final HashMap<Integer, User> mUsers = new HashMap<>();
+
+    private UserResolver mUserResolver = new UserResolver() {
+        @Override
+        public User resolve(int id, String name) {
+            //Share the user between messages like the live chat
+            User user = mUsers.get(id);
+            if (user == null) {
+                user = new User(id, name, null);
+                mUsers.put(id, user);
+            }
+            return user;
+        }
+    };
+
+    private OnMessageRestoredListener mOnMessageRestoredListener;
+
+    private MessageStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        mPictureStore = new PictureStore(new File(directory, PICTURE_DIRECTORY_NAME));
+        mCodec = new MessageCodec(mPictureStore);
+        mLog = new RandomAccessFile(new File(directory, LOG_FILE_NAME), "rw");
+        mIndex = new MessageIndex(new File(directory, INDEX_FILE_NAME));
+        try {
+            load();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the store in the directory, which is created if it does not exist.
+     * Ids of generated messages are made larger than the stored ones.
+     * @param directory directory only for the store
+     * @return opened store
+     * @throws IOException if the files could not be read
+     */
+    public static MessageStore open(File directory) throws IOException {
+        return new MessageStore(directory);
+    }
+
+    /**
+     * Return the store of the pictures of messages
+     * @return picture store
+     */
+    public PictureStore getPictureStore() {
+        return mPictureStore;
+    }
+
+    public synchronized void setUserResolver(UserResolver resolver) {
+        mUserResolver = resolver;
+    }
+
+    public synchronized void setOnMessageRestoredListener(OnMessageRestoredListener listener) {
+        mOnMessageRestoredListener = listener;
+    }
+
+    /**
+     * Store the message.
+     * Only the record of the message is written, and the index is rewritten only after an older time.
+     * The picture is added to the picture store unless the message was restored with it.
+     * @param message new message whose id is unique
+     * @throws IOException if the message could not be written
+     */
+    public void add(Message message) throws IOException {
+        addAll(Collections.singletonList(message));
+    }
+
+    /**
+     * Store messages at once.
+     * All records are encoded and written before the index is changed,
+     * so nothing is stored if a message could not be encoded or written.
+     * If the index could not be extended, the messages added to it so far are kept.
+     * @param messages new messages whose ids are unique
+     * @throws IOException if the messages could not be written
+     */
+    public synchronized void addAll(Collection<? extends Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            records.add(mCodec.encode(message));
+        }
+        boolean dirty = false;
+        long watermarkTime = mIndex.getWatermarkTime();
+        int overrides = 0;
+        int added = 0;
+        try {
+            mLog.seek(mLogLength);
+            for (byte[] record : records) {
+                mLog.write(record);
+            }
+            for (Message message : messages) {
+                int position = mIndex.upperBound(message.getTimeInMillis());
+                if (position < mIndex.size() && !dirty) {
+                    //Entries after the position are moved
+                    mIndex.markDirty();
+                    dirty = true;
+                }
+                User user = message.getUser();
+                int flags = MessageCodec.getFlags(message);
+                boolean override = message.isRightMessage() && message.getTimeInMillis() < watermarkTime;
+                if (override) {
+                    //Added before the watermark keeps its own status until the next receipt like the timeline
+                    flags |= MessageIndex.FLAG_STATUS_OVERRIDE;
+                }
+                mIndex.insert(position, message.getTimeInMillis(), message.getId(), mLogLength,
+                        user != null ? user.getId() : 0, flags);
+                if (override) {
+                    overrides++;
+                }
+                mLogLength += records.get(added++).length;
+            }
+        } finally {
+            if (added < records.size()) {
+                //Records which are not in the index are not restored on the next open
+                mLog.setLength(mLogLength);
+            }
+            if (overrides > 0) {
+                mIndex.setOverrideCount(mIndex.getOverrideCount() + overrides);
+            }
+            mIndex.commit(mLogLength);
+        }
+    }
+
+    /**
+     * Load messages older than the given message
+     * @param before oldest loaded message, or null to load the latest messages
+     * @param count max number of messages
+     * @return messages sorted by created time
+     * @throws IOException if the messages could not be read
+     */
+    public synchronized List<Message> loadBefore(Message before, int count) throws IOException {
+        int end = mIndex.size();
+        if (before != null) {
+            int position = mIndex.indexOf(before.getTimeInMillis(), before.getId());
+            end = position >= 0 ? position : mIndex.lowerBound(before.getTimeInMillis());
+        }
+        return read(Math.max(0, end - count), end);
+    }
+
+    /**
+     * Load messages newer than the given message
+     * @param after newest loaded message
+     * @param count max number of messages
+     * @return messages sorted by created time
+     * @throws IOException if the messages could not be read
+     */
+    public synchronized List<Message> loadAfter(Message after, int count) throws IOException {
+        int position = mIndex.indexOf(after.getTimeInMillis(), after.getId());
+        int start = position >= 0 ? position + 1 : mIndex.upperBound(after.getTimeInMillis());
+        return read(start, Math.min(mIndex.size(), start + count));
+    }
+
+    /**
+     * Load messages created in the range
+     * @param fromTime start of the range in milliseconds, inclusive
+     * @param toTime end of the range in milliseconds, exclusive
+     * @return messages sorted by created time
+     * @throws IOException if the messages could not be read
+     */
+    public synchronized List<Message> loadRange(long fromTime, long toTime) throws IOException {
+        int start = mIndex.lowerBound(fromTime);
+        return read(start, Math.max(start, mIndex.lowerBound(toTime)));
+    }
+
+    /**
+     * Load the message.
+     * Entries are searched from the newest one, so this is slower for older messages.
+     * @param id id of the message
+     * @return message or null if it is not stored
+     * @throws IOException if the message could not be read
+     */
+    public synchronized Message getMessage(long id) throws IOException {
+        int position = mIndex.findById(id);
+        return position >= 0 ? read(position, position + 1).get(0) : null;
+    }
+
+    /**
+     * Change the stored status in place.
+     * A right message up to the last read receipt keeps the status until the next receipt,
+     * like {@link com.github.bassaer.chatmessageview.models.MessageTimeline#setStatus(Message, int)}.
+     * @param message stored message, which is found by its created time and id
+     * @param status new status
+     * @return true if the message was found
+     * @throws IOException if the status could not be written
+     */
+    public synchronized boolean updateStatus(Message message, int status) throws IOException {
+        int position = mIndex.indexOf(message.getTimeInMillis(), message.getId());
+        if (position < 0) {
+            return false;
+        }
+        writeStatus(position, status);
+        int flags = mIndex.getFlags(position);
+        if ((flags & MessageCodec.FLAG_RIGHT) != 0 && (flags & MessageIndex.FLAG_STATUS_OVERRIDE) == 0
+                && position <= findWatermark()) {
+            mIndex.setFlags(position, flags | MessageIndex.FLAG_STATUS_OVERRIDE);
+            mIndex.setOverrideCount(mIndex.getOverrideCount() + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Change the stored status of all right messages up to the message, such as a read receipt,
+     * like {@link com.github.bassaer.chatmessageview.models.MessageTimeline#setStatusUntil(Message, int)}.
+     * The last message and the status are kept in the index and applied when messages are read,
+     * so only the records after the previous receipt and the ones whose status was changed after it are written.
+     * The statuses written by the receipts are shown if the index is rebuilt.
+     * A receipt up to an older message than the previous one is ignored.
+     * @param message last message of the range, which is found by its created time and id
+     * @param status new status
+     * @return true if the message was found
+     * @throws IOException if the statuses could not be written
+     */
+    public synchronized boolean updateStatusUntil(Message message, int status) throws IOException {
+        int position = mIndex.indexOf(message.getTimeInMillis(), message.getId());
+        if (position < 0) {
+            return false;
+        }
+        int watermark = findWatermark();
+        if (position <= watermark) {
+            return true;
+        }
+        for (int i = position; i > watermark; i--) {
+            //Left messages are skipped without reading the log
+            if ((mIndex.getFlags(i) & MessageCodec.FLAG_RIGHT) != 0) {
+                writeStatus(i, status);
+            }
+        }
+        if (mIndex.getOverrideCount() > 0) {
+            for (int i = 0; i <= watermark; i++) {
+                int flags = mIndex.getFlags(i);
+                if ((flags & MessageIndex.FLAG_STATUS_OVERRIDE) != 0) {
+                    writeStatus(i, status);
+                    mIndex.setFlags(i, flags & ~MessageIndex.FLAG_STATUS_OVERRIDE);
+                }
+            }
+            mIndex.setOverrideCount(0);
+        }
+        mIndex.setWatermark(message.getTimeInMillis(), message.getId(), status);
+        return true;
+    }
+
+    /**
+     * Return the number of stored messages
+     * @return number of messages
+     */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * Remove all messages and pictures
+     * @throws IOException if the files could not be written
+     */
+    public synchronized void clear() throws IOException {
+        mLog.setLength(0);
+        mLogLength = 0;
+        mIndex.reset();
+        mPictureStore.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            mLog.close();
+        } finally {
+            mIndex.close();
+        }
+    }
+
+    /**
+     * Map the index and add the records which are not in the index yet
+     */
+    private void load() throws IOException {
+        long committed = mIndex.open();
+        if (committed < 0 || committed > mLog.length()) {
+            //Rebuild the index from the log
+            mIndex.reset();
+            committed = 0;
+        }
+        if (recover(committed)) {
+            mIndex.commit(mLogLength);
+        }
+        Message.reserveIds(mIndex.getMaxId());
+    }
+
+    /**
+     * Add entries of complete records after the position and cut off a broken record at the end
+     * @param position start of the records which are not in the index
+     * @return true if the index or the log was changed
+     */
+    private boolean recover(long position) throws IOException {
+        long start = position;
+        long length = mLog.length();
+        byte[] header = new byte[MessageCodec.HEADER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        while (position + MessageCodec.HEADER_SIZE <= length) {
+            mLog.seek(position);
+            mLog.readFully(header);
+            long end = position + MessageCodec.LENGTH_SIZE + buffer.getInt(0);
+            if (end < position + MessageCodec.HEADER_SIZE || end > length) {
+                break;
+            }
+            long time = buffer.getLong(MessageCodec.TIME_OFFSET);
+            mIndex.insert(mIndex.upperBound(time), time, buffer.getLong(MessageCodec.ID_OFFSET), position,
+                    buffer.getInt(MessageCodec.USER_ID_OFFSET), buffer.get(MessageCodec.FLAGS_OFFSET));
+            position = end;
+        }
+        mLogLength = position;
+        if (position < length) {
+            //Interrupted while the record was written
+            mLog.setLength(position);
+            return true;
+        }
+        return position != start;
+    }
+
+    /**
+     * Return the position of the last message of the previous receipt
+     * @return position, or -1 if there is no receipt or its message is not stored anymore
+     */
+    private int findWatermark() {
+        long time = mIndex.getWatermarkTime();
+        return time != Long.MIN_VALUE ? mIndex.indexOf(time, mIndex.getWatermarkId()) : -1;
+    }
+
+    private void writeStatus(int position, int status) throws IOException {
+        mLog.seek(mIndex.getOffset(position) + MessageCodec.STATUS_OFFSET);
+        mLog.writeInt(status);
+    }
+
+    private List<Message> read(int start, int end) throws IOException {
+        List<Message> messages = new ArrayList<>(end - start);
+        int watermark = findWatermark();
+        for (int i = start; i < end; i++) {
+            mLog.seek(mIndex.getOffset(i));
+            byte[] payload = new byte[mLog.readInt()];
+            mLog.readFully(payload);
+            Message message = mCodec.decode(new DataInputStream(new ByteArrayInputStream(payload)), mUserResolver);
+            int flags = mIndex.getFlags(i);
+            if (i <= watermark && (flags & MessageCodec.FLAG_RIGHT) != 0
+                    && (flags & MessageIndex.FLAG_STATUS_OVERRIDE) == 0) {
+                //Status of the latest receipt
+                message.setStatus(mIndex.getWatermarkStatus());
+            }
+            if (mOnMessageRestoredListener != null) {
+                mOnMessageRestoredListener.onMessageRestored(message);
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.bassaer.chatmessageview.store;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.github.bassaer.chatmessageview.models.IMessagePagingSource;
+import com.github.bassaer.chatmessageview.models.Message;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads pages of {@link com.github.bassaer.chatmessageview.views.MessageView} from the store.
+ * Pages are read on the executor, so use the same serial executor as the writes
+ * to load the messages which were added before the request.
+ */
+public class MessageStorePagingSource implements IMessagePagingSource {
+
+    private static final String TAG = "MessageStorePaging";
+
+    private final MessageStore mStore;
+    private final Executor mExecutor;
+
+    /**
+     * Read pages on {@link AsyncTask#SERIAL_EXECUTOR}
+     * @param store store to read
+     */
+    public MessageStorePagingSource(MessageStore store) {
+        this(store, AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * @param store store to read
+     * @param executor executor to read pages on
+     */
+    public MessageStorePagingSource(MessageStore store, Executor executor) {
+        mStore = store;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void loadBefore(final Message before, final int pageSize, final LoadCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Message> messages;
+                try {
+                    messages = mStore.loadBefore(before, pageSize);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load messages", e);
+                    messages = Collections.emptyList();
+                }
+                callback.onLoaded(messages);
+            }
+        });
+    }
+
+    @Override
+    public void loadAfter(final Message after, final int pageSize, final LoadCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Message> messages;
+                try {
+                    messages = mStore.loadAfter(after, pageSize);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load messages", e);
+                    messages = Collections.emptyList();
+                }
+                callback.onLoaded(messages);
+            }
+        });
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.bassaer.chatmessageview.store;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.github.bassaer.chatmessageview.models.PictureSource;
+import com.github.bassaer.chatmessageview.utils.PictureLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Pictures stored once per content in a directory.
+ * Each picture is saved as a file named by the SHA-256 hash of its bytes, so the same picture is kept only once
+ * and messages refer to it by the hash.
+ * A small thumbnail is generated when the picture is added, so restored messages do not decode the original.
+ */
+public class PictureStore {
+
+    /**
+     * Max width and height of thumbnails in pixels
+     */
+    public static final int DEFAULT_THUMBNAIL_SIZE = 480;
+
+    private static final String THUMBNAIL_SUFFIX = ".thumb";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int COMPRESS_QUALITY = 90;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private final File mDirectory;
+
+    private int mThumbnailSize = DEFAULT_THUMBNAIL_SIZE;
+
+    /**
+     * @param directory directory only for pictures, which is created when a picture is added
+     */
+    public PictureStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Set the max size of thumbnails generated later
+     * @param thumbnailSize size in pixels, or 0 not to generate thumbnails
+     */
+    public synchronized void setThumbnailSize(int thumbnailSize) {
+        mThumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * Add encoded picture
+     * @param bytes encoded picture such as JPEG or PNG
+     * @return hash of the picture
+     * @throws IOException if the picture could not be written
+     */
+    public String put(byte[] bytes) throws IOException {
+        return put(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Add decoded picture, which is encoded as JPEG
+     * @param bitmap picture
+     * @return hash of the picture
+     * @throws IOException if the picture could not be written
+     */
+    public String put(Bitmap bitmap) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, COMPRESS_QUALITY, outputStream);
+        return put(outputStream.toByteArray());
+    }
+
+    /**
+     * Add picture file.
+     * The file is copied, or only hashed if it is already in the store.
+     * @param file encoded picture
+     * @return hash of the picture
+     * @throws IOException if the picture could not be read or written
+     */
+    public String put(File file) throws IOException {
+        String hash = getHash(file.getAbsolutePath());
+        if (hash != null) {
+            return hash;
+        }
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return put(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Add picture from the stream such as a content uri.
+     * The stream is written to a temporary file while it is hashed, and discarded if the picture is already stored.
+     * @param inputStream encoded picture, which is not closed
+     * @return hash of the picture
+     * @throws IOException if the picture could not be read or written
+     */
+    public synchronized String put(InputStream inputStream) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + mDirectory);
+        }
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile("picture", ".tmp", mDirectory);
+        try {
+            OutputStream outputStream = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                    outputStream.write(buffer, 0, count);
+                }
+            } finally {
+                outputStream.close();
+            }
+            String hash = toHex(digest.digest());
+            File file = getFile(hash);
+            if (!file.exists()) {
+                //Complete file appears at once
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Failed to write " + file);
+                }
+                writeThumbnail(file, getThumbnailFile(hash));
+            }
+            return hash;
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Return the hash of the source if it is a picture of this store
+     * @param source picture source
+     * @return hash or null
+     */
+    public String getHash(PictureSource source) {
+        return source.getPath() != null ? getHash(source.getPath()) : null;
+    }
+
+    public boolean contains(String hash) {
+        return getFile(hash).exists();
+    }
+
+    public File getFile(String hash) {
+        return new File(mDirectory, hash);
+    }
+
+    public File getThumbnailFile(String hash) {
+        return new File(mDirectory, hash + THUMBNAIL_SUFFIX);
+    }
+
+    /**
+     * @param hash hash of the picture
+     * @return source of the original picture
+     */
+    public PictureSource getPictureSource(String hash) {
+        return PictureSource.fromFile(getFile(hash));
+    }
+
+    /**
+     * @param hash hash of the picture
+     * @return source of the thumbnail, or the original if it has no thumbnail
+     */
+    public PictureSource getThumbnailSource(String hash) {
+        File thumbnail = getThumbnailFile(hash);
+        return thumbnail.exists() ? PictureSource.fromFile(thumbnail) : getPictureSource(hash);
+    }
+
+    /**
+     * Remove all pictures
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            //Deleted on exit if the file is open
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Return the hash from the path of the original or the thumbnail
+     */
+    private String getHash(String path) {
+        File file = new File(path);
+        if (!mDirectory.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile())) {
+            return null;
+        }
+        String name = file.getName();
+        if (name.endsWith(THUMBNAIL_SUFFIX)) {
+            name = name.substring(0, name.length() - THUMBNAIL_SUFFIX.length());
+        }
+        return file.exists() ? name : null;
+    }
+
+    /**
+     * Write a thumbnail which fits in the thumbnail size
+     */
+    private void writeThumbnail(File picture, File thumbnail) throws IOException {
+        if (mThumbnailSize <= 0) {
+            return;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(picture.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            //Not a picture which can be decoded
+            return;
+        }
+        options.inSampleSize = PictureLoader.calculateInSampleSize(
+                options.outWidth, options.outHeight, mThumbnailSize, mThumbnailSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(picture.getPath(), options);
+        if (bitmap == null) {
+            return;
+        }
+        float scale = Math.min(1f, (float) mThumbnailSize / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        if (scale < 1f) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        File temp = File.createTempFile("thumbnail", ".tmp", mDirectory);
+        OutputStream outputStream = new FileOutputStream(temp);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, outputStream);
+        } finally {
+            outputStream.close();
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(thumbnail) && !temp.delete()) {
+            temp.deleteOnExit();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            //Every platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,321 @@
+package com.github.bassaer.chatmessageview.store;
+
+import com.github.bassaer.chatmessageview.models.IMessagePagingSource;
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.PictureSource;
+import com.github.bassaer.chatmessageview.models.User;
+import com.github.bassaer.chatmessageview.utils.MessageDateComparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ranged reads and recovery of {@link MessageStore}
+ */
+public class MessageStoreTest {
+
+    private static final long BASE_TIME = 1483228800000L;
+    private static final long MINUTE = 60 * 1000;
+
+    private final User mMe = new User(0, "Michael", null);
+    private final User mYou = new User(1, "Emily", null);
+
+    private File mDirectory;
+    private MessageStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("store", "");
+        assertTrue(mDirectory.delete());
+        mStore = MessageStore.open(mDirectory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStore.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    private Message createMessage(long timeInMillis, int index) {
+        return new Message.Builder()
+                .setUser(index % 2 == 0 ? mMe : mYou)
+                .setRightMessage(index % 2 == 0)
+                .setMessageText("Message " + index)
+                .setStatus(index % 3)
+                .setCreatedAt(timeInMillis)
+                .build();
+    }
+
+    private List<Message> addRandomMessages(int count) throws IOException {
+        Random random = new Random(5);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = createMessage(BASE_TIME + random.nextInt(count) * MINUTE, i);
+            messages.add(message);
+            mStore.add(message);
+        }
+        //Same order as the timeline which keeps the order of addition for the same time
+        Collections.sort(messages, new MessageDateComparator());
+        return messages;
+    }
+
+    private static void assertSameMessages(List<Message> expected, List<Message> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getTimeInMillis(), actual.get(i).getTimeInMillis());
+            assertEquals(expected.get(i).getMessageText(), actual.get(i).getMessageText());
+        }
+    }
+
+    @Test
+    public void loadBefore_readsPagesInOrder() throws Exception {
+        List<Message> expected = addRandomMessages(200);
+
+        List<Message> loaded = new ArrayList<>();
+        List<Message> page = mStore.loadBefore(null, 30);
+        while (!page.isEmpty()) {
+            loaded.addAll(0, page);
+            page = mStore.loadBefore(page.get(0), 30);
+        }
+        assertSameMessages(expected, loaded);
+
+        List<Message> newer = mStore.loadAfter(expected.get(99), 10);
+        assertSameMessages(expected.subList(100, 110), newer);
+    }
+
+    @Test
+    public void loadRange_readsMessagesInTheRange() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mStore.add(createMessage(BASE_TIME + i * MINUTE, i));
+        }
+        List<Message> messages = mStore.loadRange(BASE_TIME + 3 * MINUTE, BASE_TIME + 6 * MINUTE);
+        assertEquals(3, messages.size());
+        assertEquals("Message 3", messages.get(0).getMessageText());
+        assertEquals("Message 5", messages.get(2).getMessageText());
+    }
+
+    @Test
+    public void open_restoresFieldsAndStatus() throws Exception {
+        Message original = createMessage(BASE_TIME, 0);
+        original.setUsernameVisibility(false);
+        original.hideIcon(true);
+        mStore.add(original);
+        Message received = createMessage(BASE_TIME + MINUTE, 1);
+        mStore.add(received);
+        assertTrue(mStore.updateStatus(original, 7));
+        assertFalse(mStore.updateStatus(createMessage(BASE_TIME, 2), 7));
+
+        mStore.close();
+        mStore = MessageStore.open(mDirectory);
+        assertEquals(2, mStore.size());
+        Message message = mStore.getMessage(original.getId());
+        assertEquals(original.getTimeInMillis(), message.getTimeInMillis());
+        assertEquals("Message 0", message.getMessageText());
+        assertEquals(7, message.getStatus());
+        assertEquals(0, message.getUser().getId());
+        assertEquals("Michael", message.getUser().getName());
+        assertTrue(message.isRightMessage());
+        assertFalse(message.getUsernameVisibility());
+        assertTrue(message.isIconHided());
+        assertEquals(Message.Type.TEXT, message.getType());
+        //Messages of the same user share the user
+        assertSame(message.getUser(), mStore.loadBefore(null, 2).get(0).getUser());
+
+        //Generated ids do not collide with the restored ones
+        assertTrue(new Message().getId() > received.getId());
+    }
+
+    private List<Message> addMessagesWithStatus(int count, int status) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = createMessage(BASE_TIME + i * MINUTE, i);
+            message.setStatus(status);
+            messages.add(message);
+            mStore.add(message);
+        }
+        return messages;
+    }
+
+    private void assertStatuses(int... expected) throws IOException {
+        List<Message> loaded = mStore.loadBefore(null, expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Status of message " + i, expected[i], loaded.get(i).getStatus());
+        }
+    }
+
+    @Test
+    public void updateStatusUntil_changesRightMessages() throws Exception {
+        List<Message> messages = addMessagesWithStatus(6, 1);
+        //Right message which already has the status does not stop the update
+        mStore.updateStatus(messages.get(2), 2);
+        assertTrue(mStore.updateStatusUntil(messages.get(4), 2));
+        assertStatuses(2, 1, 2, 1, 2, 1);
+
+        assertTrue(mStore.updateStatusUntil(messages.get(0), 3));
+        mStore.close();
+        mStore = MessageStore.open(mDirectory);
+        //Older receipt does not move the statuses back
+        assertStatuses(2, 1, 2, 1, 2, 1);
+        assertFalse(mStore.updateStatusUntil(createMessage(BASE_TIME, 6), 3));
+    }
+
+    @Test
+    public void updateStatusUntil_changesOverriddenMessagesAgain() throws Exception {
+        List<Message> messages = addMessagesWithStatus(6, 1);
+        assertTrue(mStore.updateStatusUntil(messages.get(2), 2));
+        //Changed and added in the range of the receipt
+        mStore.updateStatus(messages.get(0), 4);
+        Message late = createMessage(BASE_TIME + MINUTE / 2, 6);
+        late.setStatus(1);
+        mStore.add(late);
+        assertStatuses(4, 1, 1, 2, 1, 1, 1);
+
+        mStore.close();
+        mStore = MessageStore.open(mDirectory);
+        assertTrue(mStore.updateStatusUntil(messages.get(4), 3));
+        assertStatuses(3, 3, 1, 3, 1, 3, 1);
+    }
+
+    @Test
+    public void addAll_storesNothingIfMessageCouldNotBeEncoded() throws Exception {
+        List<Message> expected = addRandomMessages(10);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(createMessage(BASE_TIME - (i + 1) * MINUTE, 10 + i));
+        }
+        //Picture file which could not be read
+        batch.get(3).setPictureSource(PictureSource.fromFile(new File(mDirectory, "missing.jpg")));
+        try {
+            mStore.addAll(batch);
+            fail();
+        } catch (IOException e) {
+            //Expected
+        }
+        assertEquals(10, mStore.size());
+        assertSameMessages(expected, mStore.loadBefore(null, 100));
+
+        //Next records do not overwrite the stored ones
+        Message message = createMessage(BASE_TIME + 100 * MINUTE, 20);
+        mStore.add(message);
+        mStore.close();
+        mStore = MessageStore.open(mDirectory);
+        assertEquals(11, mStore.size());
+        assertSameMessages(expected, mStore.loadBefore(message, 100));
+        assertEquals("Message 20", mStore.loadBefore(null, 1).get(0).getMessageText());
+    }
+
+    @Test
+    public void open_repairsInterruptedWrites() throws Exception {
+        List<Message> expected = addRandomMessages(20);
+        mStore.close();
+
+        //Broken record at the end of the log
+        RandomAccessFile log = new RandomAccessFile(new File(mDirectory, "messages.log"), "rw");
+        log.seek(log.length());
+        log.write(new byte[]{0, 0, 1, 0, 42});
+        log.close();
+        mStore = MessageStore.open(mDirectory);
+        assertSameMessages(expected, mStore.loadBefore(null, 100));
+
+        Message message = createMessage(BASE_TIME + 100 * MINUTE, 20);
+        mStore.add(message);
+        mStore.close();
+
+        //Index is rebuilt from the log
+        assertTrue(new File(mDirectory, "messages.idx").delete());
+        mStore = MessageStore.open(mDirectory);
+        assertEquals(21, mStore.size());
+        assertSameMessages(expected, mStore.loadBefore(message, 100));
+        assertEquals(message.getId(), mStore.loadBefore(null, 1).get(0).getId());
+    }
+
+    @Test
+    public void open_readsLatestPageOfLongHistory() throws Exception {
+        final int count = 20000;
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(createMessage(BASE_TIME + i * MINUTE, i));
+        }
+        mStore.addAll(messages);
+        mStore.close();
+
+        //Entries and records before the latest page are not read
+        byte[] garbage = new byte[(count - 30) * MessageIndex.ENTRY_SIZE];
+        Arrays.fill(garbage, (byte) 0xff);
+        RandomAccessFile index = new RandomAccessFile(new File(mDirectory, "messages.idx"), "rw");
+        index.seek(MessageIndex.HEADER_SIZE);
+        index.write(garbage);
+        index.close();
+        RandomAccessFile log = new RandomAccessFile(new File(mDirectory, "messages.log"), "rw");
+        log.write(garbage, 0, 1000);
+        log.close();
+
+        mStore = MessageStore.open(mDirectory);
+        List<Message> page = mStore.loadBefore(null, 30);
+        assertEquals(count, mStore.size());
+        assertSameMessages(messages.subList(count - 30, count), page);
+        assertTrue(new Message().getId() > messages.get(count - 1).getId());
+    }
+
+    @Test
+    public void open_rebuildsIndexWhichDoesNotMatch() throws Exception {
+        List<Message> expected = addRandomMessages(30);
+        mStore.close();
+
+        //Entries after the committed length are added again from the log
+        RandomAccessFile index = new RandomAccessFile(new File(mDirectory, "messages.idx"), "rw");
+        index.seek(8);
+        index.writeLong(0);
+        index.close();
+        mStore = MessageStore.open(mDirectory);
+        assertSameMessages(expected, mStore.loadBefore(null, 100));
+        mStore.close();
+
+        //Index of another version
+        index = new RandomAccessFile(new File(mDirectory, "messages.idx"), "rw");
+        index.seek(4);
+        index.writeInt(1);
+        index.close();
+        mStore = MessageStore.open(mDirectory);
+        assertSameMessages(expected, mStore.loadBefore(null, 100));
+    }
+
+    @Test
+    public void pagingSource_loadsOnExecutor() throws Exception {
+        List<Message> expected = addRandomMessages(50);
+        final List<Message> loaded = new ArrayList<>();
+        MessageStorePagingSource source = new MessageStorePagingSource(mStore, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        source.loadBefore(null, 20, new IMessagePagingSource.LoadCallback() {
+            @Override
+            public void onLoaded(List<? extends Message> messages) {
+                loaded.addAll(messages);
+            }
+        });
+        assertSameMessages(expected.subList(30, 50), loaded);
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.bassaer.chatmessageview.store;
+
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.PictureSource;
+import com.github.bassaer.chatmessageview.models.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deduplication of {@link PictureStore} and picture messages of {@link MessageStore}
+ */
+public class PictureStoreTest {
+
+    private static final byte[] PICTURE = {(byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, 5};
+    private static final byte[] OTHER_PICTURE = {(byte) 0xff, (byte) 0xd8, 5, 4, 3, 2, 1};
+
+    private File mDirectory;
+    private MessageStore mStore;
+    private PictureStore mPictureStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("store", "");
+        assertTrue(mDirectory.delete());
+        mStore = MessageStore.open(mDirectory);
+        mPictureStore = mStore.getPictureStore();
+        //Thumbnails need the platform decoder
+        mPictureStore.setThumbnailSize(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStore.clear();
+        mStore.close();
+        for (File file : mDirectory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    private Message createPictureMessage(PictureSource source) {
+        return new Message.Builder()
+                .setUser(new User(0, "Michael", null))
+                .setType(Message.Type.PICTURE)
+                .setPictureSource(source)
+                .build();
+    }
+
+    private int countPictures() {
+        return new File(mDirectory, "pictures").listFiles().length;
+    }
+
+    @Test
+    public void put_keepsSamePictureOnce() throws Exception {
+        String hash = mPictureStore.put(PICTURE);
+        assertEquals(64, hash.length());
+        assertEquals(hash, mPictureStore.put(PICTURE.clone()));
+        assertNotEquals(hash, mPictureStore.put(OTHER_PICTURE));
+        assertEquals(2, countPictures());
+
+        File file = mPictureStore.getFile(hash);
+        byte[] stored = new byte[PICTURE.length];
+        InputStream inputStream = new FileInputStream(file);
+        assertEquals(PICTURE.length, inputStream.read(stored));
+        inputStream.close();
+        assertTrue(Arrays.equals(PICTURE, stored));
+
+        //Pictures of the store are not copied again
+        assertEquals(hash, mPictureStore.put(file));
+        assertEquals(hash, mPictureStore.getHash(mPictureStore.getThumbnailSource(hash)));
+        assertNull(mPictureStore.getHash(PictureSource.fromBytes(PICTURE)));
+        assertEquals(2, countPictures());
+    }
+
+    @Test
+    public void add_storesPictureByHash() throws Exception {
+        mStore.add(createPictureMessage(PictureSource.fromBytes(PICTURE)));
+        mStore.add(createPictureMessage(PictureSource.fromBytes(PICTURE.clone())));
+        assertEquals(1, countPictures());
+
+        mStore.close();
+        mStore = MessageStore.open(mDirectory);
+        mPictureStore = mStore.getPictureStore();
+        Message restored = mStore.loadBefore(null, 1).get(0);
+        assertEquals(Message.Type.PICTURE, restored.getType());
+        String hash = mPictureStore.getHash(restored.getPictureSource());
+        assertEquals(mPictureStore.getFile(hash).getAbsolutePath(), restored.getPictureSource().getPath());
+
+        //Saving the restored message refers to the same file
+        File file = mPictureStore.getFile(hash);
+        long modified = file.lastModified();
+        mStore.add(createPictureMessage(restored.getPictureSource()));
+        assertEquals(1, countPictures());
+        assertEquals(modified, file.lastModified());
+        assertEquals(3, mStore.size());
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.bassaer.chatmessageview.views.adapters;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.User;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * Recycling and bind cost of {@link MessageAdapter} rows
+ */
+public class MessageAdapterTest extends AndroidTestCase {
+
+    /**
+     * Inflater which counts inflated layouts
+     */
+    private static class CountingInflater extends LayoutInflater {
+        private static final String[] CLASS_PREFIXES = {"android.widget.", "android.webkit.", "android.app."};
+
+        private int count;
+
+        CountingInflater(LayoutInflater original, Context context) {
+            super(original, context);
+        }
+
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new CountingInflater(this, newContext);
+        }
+
+        @Override
+        public View inflate(int resource, ViewGroup root, boolean attachToRoot) {
+            count++;
+            return super.inflate(resource, root, attachToRoot);
+        }
+
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs) throws ClassNotFoundException {
+            //Same as the inflater of the platform
+            for (String prefix : CLASS_PREFIXES) {
+                try {
+                    View view = createView(name, prefix, attrs);
+                    if (view != null) {
+                        return view;
+                    }
+                } catch (ClassNotFoundException e) {
+                    //Try the next package
+                }
+            }
+            return super.onCreateView(name, attrs);
+        }
+    }
+
+    private Context createContext(final LayoutInflater inflater) {
+        return new ContextWrapper(getContext()) {
+            @Override
+            public Object getSystemService(String name) {
+                return LAYOUT_INFLATER_SERVICE.equals(name) ? inflater : super.getSystemService(name);
+            }
+        };
+    }
+
+    private ArrayList<Object> createMessages(int count) {
+        User me = new User(0, "Michael", null);
+        User you = new User(1, "Emily", null);
+        ArrayList<Object> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.add(Calendar.MINUTE, i);
+            items.add(new Message.Builder()
+                    .setUser(i % 3 == 0 ? me : you)
+                    .setRightMessage(i % 3 == 0)
+                    .setMessageText("Message " + i)
+                    .setCreatedAt(calendar)
+                    .build());
+        }
+        return items;
+    }
+
+    public void testRecycledRowKeepsChildViews() {
+        ArrayList<Object> items = createMessages(10);
+        MessageAdapter adapter = new MessageAdapter(getContext(), items);
+        RecyclerView parent = new RecyclerView(getContext());
+
+        MessageAdapter.MessageViewHolder holder = (MessageAdapter.MessageViewHolder)
+                adapter.onCreateViewHolder(parent, adapter.getItemViewType(1));
+        adapter.onBindViewHolder(holder, 1);
+        View username = holder.username;
+        View icon = holder.icon;
+        View messageText = holder.messageText;
+
+        // Same view type, so the row is recycled as it is
+        assertEquals(adapter.getItemViewType(1), adapter.getItemViewType(2));
+        adapter.onBindViewHolder(holder, 2);
+        assertSame(username, holder.username);
+        assertSame(icon, holder.icon);
+        assertSame(messageText, holder.messageText);
+        assertEquals(1, holder.usernameContainer.getChildCount());
+        assertEquals(1, holder.iconContainer.getChildCount());
+        assertEquals(2, holder.statusContainer.getChildCount());
+    }
+
+    public void testBindDoesNotInflate() {
+        ArrayList<Object> items = createMessages(3000);
+        CountingInflater inflater = new CountingInflater(LayoutInflater.from(getContext()), getContext());
+        MessageAdapter adapter = new MessageAdapter(createContext(inflater), items);
+        RecyclerView parent = new RecyclerView(getContext());
+
+        //Scrolling list recycles a row of each view type
+        SparseArray<RecyclerView.ViewHolder> holders = new SparseArray<>();
+        for (int i = 0; i < items.size(); i++) {
+            int viewType = adapter.getItemViewType(i);
+            if (holders.get(viewType) == null) {
+                holders.put(viewType, adapter.onCreateViewHolder(parent, viewType));
+            }
+        }
+        int created = inflater.count;
+        //Main, username, icon, two status and bubble layouts per row
+        assertTrue("inflated " + created + " layouts", created <= holders.size() * 6);
+
+        for (int i = 0; i < items.size(); i++) {
+            adapter.onBindViewHolder(holders.get(adapter.getItemViewType(i)), i);
+        }
+        //Binding inflated up to five layouts per row before the rows kept their child views
+        assertEquals(0, inflater.count - created);
+    }
+}
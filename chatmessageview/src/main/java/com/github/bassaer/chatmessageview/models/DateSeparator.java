@@ -0,0 +1,45 @@
+package com.github.bassaer.chatmessageview.models;
+
+/**
+ * Date label which is shown before the first message of each day
+ */
+public class DateSeparator {
+
+    /**
+     * Days from epoch in the local time zone
+     */
+    private final long mEpochDay;
+
+    /**
+     * Start time of the day, used to sort the label before the messages of the day
+     */
+    private final long mTimeInMillis;
+
+    /**
+     * Formatted date text
+     */
+    private final String mText;
+
+    public DateSeparator(long epochDay, long timeInMillis, String text) {
+        mEpochDay = epochDay;
+        mTimeInMillis = timeInMillis;
+        mText = text;
+    }
+
+    public long getEpochDay() {
+        return mEpochDay;
+    }
+
+    public long getTimeInMillis() {
+        return mTimeInMillis;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public String toString() {
+        return mText;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.bassaer.chatmessageview.models;
+
+import java.util.List;
+
+/**
+ * Source of history pages which {@link com.github.bassaer.chatmessageview.views.MessageView} loads on demand.
+ * Messages sent or received while the newer pages are not loaded are kept by the view and added after them,
+ * unless the source returns a message of the same id.
+ * Messages dropped by the view to bound the memory are shown again only if the source returns them.
+ */
+public interface IMessagePagingSource {
+
+    /**
+     * Load messages older than the given message.
+     * @param before oldest loaded message, or null to load the latest page
+     * @param pageSize max number of messages to load
+     * @param callback called with the loaded messages on any thread
+     */
+    void loadBefore(Message before, int pageSize, LoadCallback callback);
+
+    /**
+     * Load messages newer than the given message.
+     * @param after newest loaded message
+     * @param pageSize max number of messages to load
+     * @param callback called with the loaded messages on any thread
+     */
+    void loadAfter(Message after, int pageSize, LoadCallback callback);
+
+    interface LoadCallback {
+        /**
+         * @param messages loaded messages, fewer than the page size if there are no more messages
+         */
+        void onLoaded(List<? extends Message> messages);
+    }
+}
@@ -3,14 +3,16 @@ package com.github.bassaer.chatmessageview.models;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 
+import com.github.bassaer.chatmessageview.utils.DateFormatCache;
 import com.github.bassaer.chatmessageview.utils.DateFormatter;
 import com.github.bassaer.chatmessageview.utils.DefaultTimeFormatter;
 import com.github.bassaer.chatmessageview.utils.IMessageStatusIconFormatter;
 import com.github.bassaer.chatmessageview.utils.IMessageStatusTextFormatter;
 import com.github.bassaer.chatmessageview.utils.ITimeFormatter;
-import com.github.bassaer.chatmessageview.utils.SendTimeFormatter;
+import com.github.bassaer.chatmessageview.utils.PatternTimeFormatter;
 
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Message object
@@ -18,6 +20,13 @@ import java.util.Calendar;
  */
 public class Message {
 
+    private static final AtomicLong sIdCount = new AtomicLong();
+
+    /**
+     * Identifies the message in the chat
+     */
+    private long mId;
+
     /**
      * Sender information
      */
@@ -47,9 +56,9 @@ public class Message {
     private String mMessageText;
 
     /**
-     * The time message that was created
+     * The time message that was created in epoch millis
      */
-    private Calendar mCreatedAt;
+    private long mCreatedAt;
 
     /**
      * Whether cell of list view is date separator text or not.
@@ -67,6 +76,20 @@ public class Message {
      */
     private ITimeFormatter mDateFormatter;
 
+    /**
+     * Formatted texts of {@link PatternTimeFormatter}.
+     * They are kept while the created time and {@link DateFormatCache#getGeneration()} are the same.
+     */
+    private String mTimeText;
+    private String mDateSeparateText;
+    private int mFormattedGeneration;
+
+    /**
+     * Formatters have no state, so all messages share them by default
+     */
+    private static final ITimeFormatter DEFAULT_SEND_TIME_FORMATTER = new DefaultTimeFormatter();
+    private static final ITimeFormatter DEFAULT_DATE_FORMATTER = new DateFormatter();
+
     /**
      * Message status
      * You can use to know the message status such as fail, delivered, seen.. etc.
@@ -109,6 +132,31 @@ public class Message {
      */
     public static final int MESSAGE_STATUS_TEXT_LEFT_ONLY = 6;
 
+    /**
+     * The message is not next to other messages of the same sender
+     */
+    public static final int SENDER_GROUP_SINGLE = 0;
+
+    /**
+     * First message of the messages sent by the same sender in a row
+     */
+    public static final int SENDER_GROUP_FIRST = 1;
+
+    /**
+     * Message between the first and last messages of the same sender
+     */
+    public static final int SENDER_GROUP_MIDDLE = 2;
+
+    /**
+     * Last message of the messages sent by the same sender in a row
+     */
+    public static final int SENDER_GROUP_LAST = 3;
+
+    /**
+     * Position in the messages of the same sender, which is updated by the timeline
+     */
+    private int mSenderGroup = SENDER_GROUP_SINGLE;
+
     /**
      * Message status type such as icon, text, or none.
      */
@@ -129,6 +177,11 @@ public class Message {
      */
     private Bitmap mPicture;
 
+    /**
+     * PICTURE message which is decoded when it is shown
+     */
+    private PictureSource mPictureSource;
+
 
     /**
      * Message Types
@@ -150,10 +203,10 @@ public class Message {
      * Constructor
      */
     public Message() {
-        mCreatedAt = Calendar.getInstance();
-        mSendTimeFormatter = new SendTimeFormatter();
-        mDateFormatter = new DateFormatter();
-        mSendTimeFormatter = new DefaultTimeFormatter();
+        mId = sIdCount.incrementAndGet();
+        mCreatedAt = System.currentTimeMillis();
+        mSendTimeFormatter = DEFAULT_SEND_TIME_FORMATTER;
+        mDateFormatter = DEFAULT_DATE_FORMATTER;
         mType = Type.TEXT;
     }
 
@@ -167,6 +220,11 @@ public class Message {
             message = new Message();
         }
 
+        public Builder setId(long id) {
+            message.setId(id);
+            return this;
+        }
+
         public Builder setUser(User user) {
             message.setUser(user);
             return this;
@@ -203,6 +261,11 @@ public class Message {
             return this;
         }
 
+        public Builder setCreatedAt(long timeInMillis) {
+            message.setCreatedAt(timeInMillis);
+            return this;
+        }
+
         public Builder setDateCell(boolean isDateCell) {
             message.setDateCell(isDateCell);
             return this;
@@ -248,12 +311,43 @@ public class Message {
             return this;
         }
 
+        public Builder setPictureSource(PictureSource pictureSource) {
+            message.setPictureSource(pictureSource);
+            return this;
+        }
+
         public Message build() {
             return message;
         }
 
     }
 
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * Set id such as the id on the server instead of the generated one.
+     * Generated ids are positive, and the id must not be changed after the message was added to the chat.
+     * @param id unique id in the chat
+     */
+    public void setId(long id) {
+        mId = id;
+    }
+
+    /**
+     * Make generated ids larger than the id, such as the largest id of restored messages
+     * @param id id which is in use
+     */
+    public static void reserveIds(long id) {
+        while (true) {
+            long count = sIdCount.get();
+            if (count >= id || sIdCount.compareAndSet(count, id)) {
+                return;
+            }
+        }
+    }
+
     public User getUser() {
         return mUser;
     }
@@ -302,16 +396,50 @@ public class Message {
         mMessageText = messageText;
     }
 
+    /**
+     * Return created time as a new Calendar.
+     * Changing the returned Calendar does not change the message.
+     * @return created time
+     */
     public Calendar getCreatedAt() {
-        return mCreatedAt;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mCreatedAt);
+        return calendar;
     }
 
+    /**
+     * Set created time.
+     * Only the time is kept, so changing the Calendar later does not change the message.
+     * @param calendar created time
+     */
     public void setCreatedAt(Calendar calendar) {
-        mCreatedAt = calendar;
+        setCreatedAt(calendar.getTimeInMillis());
+    }
+
+    public void setCreatedAt(long timeInMillis) {
+        mCreatedAt = timeInMillis;
+        mTimeText = null;
+        mDateSeparateText = null;
+    }
+
+    /**
+     * Return created time without creating any object
+     * @return created time in millis
+     */
+    public long getTimeInMillis() {
+        return mCreatedAt;
     }
 
     public String getTimeText() {
-        return mSendTimeFormatter.getFormattedTimeText(mCreatedAt);
+        if (!(mSendTimeFormatter instanceof PatternTimeFormatter)) {
+            //Custom formatter may return relative time, so format every time
+            return mSendTimeFormatter.getFormattedTimeText(getCreatedAt());
+        }
+        validateFormattedTexts();
+        if (mTimeText == null) {
+            mTimeText = ((PatternTimeFormatter) mSendTimeFormatter).format(mCreatedAt);
+        }
+        return mTimeText;
     }
 
     public boolean isDateCell() {
@@ -323,7 +451,60 @@ public class Message {
     }
 
     public String getDateSeparateText() {
-        return mDateFormatter.getFormattedTimeText(mCreatedAt);
+        if (!(mDateFormatter instanceof PatternTimeFormatter)) {
+            return mDateFormatter.getFormattedTimeText(getCreatedAt());
+        }
+        validateFormattedTexts();
+        if (mDateSeparateText == null) {
+            mDateSeparateText = ((PatternTimeFormatter) mDateFormatter).format(mCreatedAt);
+        }
+        return mDateSeparateText;
+    }
+
+    /**
+     * Drop formatted texts if the locale has changed
+     */
+    private void validateFormattedTexts() {
+        int generation = DateFormatCache.getGeneration();
+        if (generation != mFormattedGeneration) {
+            mTimeText = null;
+            mDateSeparateText = null;
+            mFormattedGeneration = generation;
+        }
+    }
+
+    /**
+     * Return the position in the messages sent by the same sender in a row.
+     * Username and icon are shown only on the first message.
+     * @return one of SENDER_GROUP_SINGLE, SENDER_GROUP_FIRST, SENDER_GROUP_MIDDLE and SENDER_GROUP_LAST
+     */
+    public int getSenderGroup() {
+        return mSenderGroup;
+    }
+
+    void setSenderGroup(int senderGroup) {
+        mSenderGroup = senderGroup;
+    }
+
+    /**
+     * Whether the previous message was sent by the same sender
+     * @return true if the message is not the first one of its sender group
+     */
+    public boolean isContinuedFromPrevious() {
+        return mSenderGroup == SENDER_GROUP_MIDDLE || mSenderGroup == SENDER_GROUP_LAST;
+    }
+
+    /**
+     * Return the sender group from whether the previous and next messages are sent by the same sender
+     * @param isSameAsPrevious previous message was sent by the same sender
+     * @param isSameAsNext next message was sent by the same sender
+     * @return sender group
+     */
+    static int getSenderGroup(boolean isSameAsPrevious, boolean isSameAsNext) {
+        if (isSameAsPrevious) {
+            return isSameAsNext ? SENDER_GROUP_MIDDLE : SENDER_GROUP_LAST;
+        }
+        return isSameAsNext ? SENDER_GROUP_FIRST : SENDER_GROUP_SINGLE;
     }
 
     public int getStatus() {
@@ -378,16 +559,42 @@ public class Message {
         return mPicture;
     }
 
+    /**
+     * Set decoded picture.
+     * The bitmap is kept as it is, so use {@link #setPictureSource(PictureSource)} for large pictures.
+     * @param picture picture to show
+     */
     public void setPicture(Bitmap picture) {
         mPicture = picture;
     }
 
+    public PictureSource getPictureSource() {
+        return mPictureSource;
+    }
+
+    /**
+     * Set picture which is decoded in background at the size of the bubble
+     * @param pictureSource uri, file or bytes of the picture
+     */
+    public void setPictureSource(PictureSource pictureSource) {
+        mPictureSource = pictureSource;
+    }
+
+    public ITimeFormatter getSendTimeFormatter() {
+        return mSendTimeFormatter;
+    }
+
+    public ITimeFormatter getDateFormatter() {
+        return mDateFormatter;
+    }
+
     /**
      * Set custom send time text formatter
      * @param sendTimeFormatter custom send time formatter
      */
     public void setSendTimeFormatter(ITimeFormatter sendTimeFormatter) {
         mSendTimeFormatter = sendTimeFormatter;
+        mTimeText = null;
     }
 
     /**
@@ -396,6 +603,7 @@ public class Message {
      */
     public void setDateFormatter(ITimeFormatter dateFormatter) {
         mDateFormatter = dateFormatter;
+        mDateSeparateText = null;
     }
 
     /**
@@ -404,7 +612,7 @@ public class Message {
      * @return formatted calendar object
      */
     public Calendar getCompareCalendar() {
-        Calendar calendar = (Calendar) mCreatedAt.clone();
+        Calendar calendar = getCreatedAt();
         calendar.set(Calendar.HOUR, 0);
         calendar.set(Calendar.MINUTE, 0);
         calendar.set(Calendar.SECOND, 0);
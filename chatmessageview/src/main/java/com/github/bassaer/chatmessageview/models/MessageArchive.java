@@ -0,0 +1,579 @@
+package com.github.bassaer.chatmessageview.models;
+
+import android.graphics.Bitmap;
+
+import com.github.bassaer.chatmessageview.utils.IMessageStatusIconFormatter;
+import com.github.bassaer.chatmessageview.utils.IMessageStatusTextFormatter;
+import com.github.bassaer.chatmessageview.utils.ITimeFormatter;
+import com.github.bassaer.chatmessageview.utils.MessageDateComparator;
+import com.github.bassaer.chatmessageview.utils.PatternTimeFormatter;
+import com.github.bassaer.chatmessageview.utils.TimeUtils;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Timeline of a long conversation such as an archive.
+ * Fields of each message are kept in parallel primitive arrays and texts in one char pool,
+ * so hundreds of thousands of messages fit in memory.
+ * {@link Message} objects are created only for the rows being shown and kept in a small window.
+ * Changes to the created messages are not stored, so use {@link MessageTimeline} for live conversations.
+ */
+public class MessageArchive {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Number of created messages kept around the viewport
+     */
+    private static final int WINDOW_SIZE = 64;
+
+    private static final int FLAG_RIGHT = 1;
+    private static final int FLAG_USERNAME_VISIBLE = 1 << 1;
+    private static final int FLAG_ICON_VISIBLE = 1 << 2;
+    private static final int FLAG_HIDE_ICON = 1 << 3;
+    private static final int FLAG_DATE_CELL = 1 << 4;
+    private static final int FLAG_NO_USER = 1 << 5;
+
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    /**
+     * Number of messages
+     */
+    private int mSize;
+
+    /**
+     * Columns of messages sorted by created time
+     */
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mUserIds = new int[INITIAL_CAPACITY];
+    private int[] mStatuses = new int[INITIAL_CAPACITY];
+    private byte[] mFlags = new byte[INITIAL_CAPACITY];
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+    private short[] mStyles = new short[INITIAL_CAPACITY];
+    /**
+     * Start of the text in the char pool, or -1 if the text is null
+     */
+    private int[] mTextStarts = new int[INITIAL_CAPACITY];
+    private int[] mTextLengths = new int[INITIAL_CAPACITY];
+    /**
+     * Bitmap or {@link PictureSource} of picture messages, null for others
+     */
+    private Object[] mPictures = new Object[INITIAL_CAPACITY];
+
+    /**
+     * Texts of all messages
+     */
+    private char[] mChars = new char[INITIAL_CAPACITY * 16];
+    private int mCharCount;
+
+    /**
+     * Users of the same id must be the same as described in {@link User}
+     */
+    private final HashMap<Integer, User> mUsers = new HashMap<>();
+
+    /**
+     * Formatters and status type shared by messages, usually only a few
+     */
+    private final ArrayList<Style> mStyleTable = new ArrayList<>();
+
+    /**
+     * Date separators and the row of the first message of each day
+     */
+    private final ArrayList<DateSeparator> mSeparators = new ArrayList<>();
+    private int[] mDayStarts = new int[16];
+
+    /**
+     * Created messages, the row is kept in the slot of row % WINDOW_SIZE
+     */
+    private final Message[] mWindow = new Message[WINDOW_SIZE];
+    private final int[] mWindowRows = new int[WINDOW_SIZE];
+
+    private final List<Object> mChatList = new AbstractList<Object>() {
+        @Override
+        public Object get(int position) {
+            return getChatObject(position);
+        }
+
+        @Override
+        public int size() {
+            return MessageArchive.this.size();
+        }
+    };
+
+    private static class Style {
+        private final ITimeFormatter sendTimeFormatter;
+        private final ITimeFormatter dateFormatter;
+        private final int messageStatusType;
+        private final IMessageStatusIconFormatter statusIconFormatter;
+        private final IMessageStatusTextFormatter statusTextFormatter;
+
+        Style(Message message) {
+            sendTimeFormatter = message.getSendTimeFormatter();
+            dateFormatter = message.getDateFormatter();
+            messageStatusType = message.getMessageStatusType();
+            statusIconFormatter = message.getStatusIconFormatter();
+            statusTextFormatter = message.getStatusTextFormatter();
+        }
+
+        boolean matches(Message message) {
+            return sendTimeFormatter == message.getSendTimeFormatter()
+                    && dateFormatter == message.getDateFormatter()
+                    && messageStatusType == message.getMessageStatusType()
+                    && statusIconFormatter == message.getStatusIconFormatter()
+                    && statusTextFormatter == message.getStatusTextFormatter();
+        }
+
+        String formatDate(long timeInMillis) {
+            if (dateFormatter instanceof PatternTimeFormatter) {
+                return ((PatternTimeFormatter) dateFormatter).format(timeInMillis);
+            }
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(timeInMillis);
+            return dateFormatter.getFormattedTimeText(calendar);
+        }
+    }
+
+    public MessageArchive() {
+        Arrays.fill(mWindowRows, -1);
+    }
+
+    /**
+     * Insert message at its sorted position.
+     * Appending a message newer than the others is fast, inserting in the middle moves the following rows.
+     * The day index is updated in place, so only the days after the message are moved.
+     * @param message new message
+     * @return position of the message in the chat list
+     */
+    public int add(Message message) {
+        int row = upperBound(message.getTimeInMillis());
+        ensureCapacity(mSize + 1);
+        if (row < mSize) {
+            shiftRows(row);
+            clearWindow();
+        }
+        mSize++;
+        setRow(row, message);
+        insertDay(row);
+        return getChatPosition(row);
+    }
+
+    /**
+     * Add messages at once such as restored history.
+     * New messages are sorted among themselves and merged with the current rows in one pass.
+     * @param messages new messages
+     */
+    public void addAll(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ArrayList<Message> newMessages = new ArrayList<>(messages);
+        Collections.sort(newMessages, new MessageDateComparator());
+        int prevSize = mSize;
+        ensureCapacity(mSize + newMessages.size());
+        for (Message message : newMessages) {
+            setRow(mSize++, message);
+        }
+        if (prevSize == 0 || mTimes[prevSize - 1] <= mTimes[prevSize]) {
+            //All messages are newer than the tail
+            for (int row = prevSize; row < mSize; row++) {
+                appendDay(row);
+            }
+            return;
+        }
+        //Merge the current rows and the new rows which are sorted respectively
+        int[] order = new int[mSize];
+        int i = 0;
+        int j = prevSize;
+        int k = 0;
+        while (i < prevSize && j < mSize) {
+            order[k++] = mTimes[i] <= mTimes[j] ? i++ : j++;
+        }
+        while (i < prevSize) {
+            order[k++] = i++;
+        }
+        while (j < mSize) {
+            order[k++] = j++;
+        }
+        reorderRows(order);
+        clearWindow();
+        //Rows were rearranged in one pass, so the days are also built in one pass
+        rebuildDays();
+    }
+
+    /**
+     * Group messages by the days in the current time zone again, such as after the time zone was changed.
+     * All date separators are replaced, so the positions of the items change.
+     */
+    public void rebuildDays() {
+        mSeparators.clear();
+        for (int row = 0; row < mSize; row++) {
+            appendDay(row);
+        }
+    }
+
+    /**
+     * Return the message of the row.
+     * The same object is returned while the row stays in the window.
+     * @param row index of the message without date separators
+     * @return message of the row
+     */
+    public Message getMessage(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row: " + row + ", size: " + mSize);
+        }
+        int slot = row % WINDOW_SIZE;
+        if (mWindowRows[slot] != row) {
+            mWindow[slot] = createMessage(row);
+            mWindowRows[slot] = row;
+        }
+        return mWindow[slot];
+    }
+
+    /**
+     * Return created time of the row without creating the message
+     * @param row index of the message without date separators
+     * @return created time in millis
+     */
+    public long getTimeInMillis(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row: " + row + ", size: " + mSize);
+        }
+        return mTimes[row];
+    }
+
+    /**
+     * Return the message or {@link DateSeparator} at the position of the chat list
+     * @param position position in the chat list
+     * @return message or date separator
+     */
+    public Object getChatObject(int position) {
+        //Find the last separator at or before the position
+        int low = 0;
+        int high = mSeparators.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mDayStarts[mid] + mid <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int day = low - 1;
+        if (day < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + size());
+        }
+        if (mDayStarts[day] + day == position) {
+            return mSeparators.get(day);
+        }
+        return getMessage(position - day - 1);
+    }
+
+    /**
+     * Return all contents such as right message, left message, date label.
+     * Messages are created when they are read.
+     * @return chat list which is shown on the view
+     */
+    public List<Object> getChatList() {
+        return mChatList;
+    }
+
+    /**
+     * Return the number of messages and date separators
+     * @return size of the chat list
+     */
+    public int size() {
+        return mSize + mSeparators.size();
+    }
+
+    /**
+     * Return the number of messages without date separators
+     * @return number of messages
+     */
+    public int getMessageCount() {
+        return mSize;
+    }
+
+    private int getChatPosition(int row) {
+        int low = 0;
+        int high = mSeparators.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mDayStarts[mid] <= row) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        //Separators of the days before and of the day of the row
+        return row + low;
+    }
+
+    /**
+     * Return the row after the last message which is not newer than the time
+     */
+    private int upperBound(long timeInMillis) {
+        if (mSize == 0 || mTimes[mSize - 1] <= timeInMillis) {
+            return mSize;
+        }
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] <= timeInMillis) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void setRow(int row, Message message) {
+        mTimes[row] = message.getTimeInMillis();
+        mIds[row] = message.getId();
+        User user = message.getUser();
+        int flags = 0;
+        if (user == null) {
+            flags |= FLAG_NO_USER;
+        } else {
+            mUserIds[row] = user.getId();
+            if (!mUsers.containsKey(user.getId())) {
+                mUsers.put(user.getId(), user);
+            }
+        }
+        if (message.isRightMessage()) {
+            flags |= FLAG_RIGHT;
+        }
+        if (message.getUsernameVisibility()) {
+            flags |= FLAG_USERNAME_VISIBLE;
+        }
+        if (message.getIconVisibility()) {
+            flags |= FLAG_ICON_VISIBLE;
+        }
+        if (message.isIconHided()) {
+            flags |= FLAG_HIDE_ICON;
+        }
+        if (message.isDateCell()) {
+            flags |= FLAG_DATE_CELL;
+        }
+        mFlags[row] = (byte) flags;
+        mStatuses[row] = message.getStatus();
+        mTypes[row] = (byte) message.getType().ordinal();
+        mStyles[row] = getStyle(message);
+        mPictures[row] = message.getPictureSource() != null ? message.getPictureSource() : message.getPicture();
+
+        String text = message.getMessageText();
+        if (text == null) {
+            mTextStarts[row] = -1;
+            mTextLengths[row] = 0;
+            return;
+        }
+        if (mCharCount + text.length() > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mCharCount + text.length()));
+        }
+        text.getChars(0, text.length(), mChars, mCharCount);
+        mTextStarts[row] = mCharCount;
+        mTextLengths[row] = text.length();
+        mCharCount += text.length();
+    }
+
+    private Message createMessage(int row) {
+        Message message = new Message();
+        message.setId(mIds[row]);
+        message.setCreatedAt(mTimes[row]);
+        int flags = mFlags[row];
+        if ((flags & FLAG_NO_USER) == 0) {
+            message.setUser(mUsers.get(mUserIds[row]));
+        }
+        message.setRightMessage((flags & FLAG_RIGHT) != 0);
+        message.setUsernameVisibility((flags & FLAG_USERNAME_VISIBLE) != 0);
+        message.setIconVisibility((flags & FLAG_ICON_VISIBLE) != 0);
+        message.hideIcon((flags & FLAG_HIDE_ICON) != 0);
+        message.setDateCell((flags & FLAG_DATE_CELL) != 0);
+        message.setStatus(mStatuses[row]);
+        message.setType(TYPES[mTypes[row]]);
+        if (mTextStarts[row] >= 0) {
+            message.setMessageText(new String(mChars, mTextStarts[row], mTextLengths[row]));
+        }
+
+        Style style = mStyleTable.get(mStyles[row]);
+        message.setSendTimeFormatter(style.sendTimeFormatter);
+        message.setDateFormatter(style.dateFormatter);
+        message.setMessageStatusType(style.messageStatusType);
+        message.setStatusIconFormatter(style.statusIconFormatter);
+        message.setStatusTextFormatter(style.statusTextFormatter);
+
+        Object picture = mPictures[row];
+        if (picture instanceof PictureSource) {
+            message.setPictureSource((PictureSource) picture);
+        } else if (picture instanceof Bitmap) {
+            message.setPicture((Bitmap) picture);
+        }
+        message.setSenderGroup(Message.getSenderGroup(
+                row > 0 && isSameSender(row - 1, row), row + 1 < mSize && isSameSender(row, row + 1)));
+        return message;
+    }
+
+    /**
+     * Whether the rows next to each other are sent by the same sender at the same day
+     */
+    private boolean isSameSender(int row, int nextRow) {
+        if (((mFlags[row] | mFlags[nextRow]) & FLAG_NO_USER) != 0 || mUserIds[row] != mUserIds[nextRow]) {
+            return false;
+        }
+        //Date separator splits the group
+        return TimeUtils.getEpochDay(mTimes[row]) == TimeUtils.getEpochDay(mTimes[nextRow]);
+    }
+
+    private short getStyle(Message message) {
+        for (int i = mStyleTable.size() - 1; i >= 0; i--) {
+            if (mStyleTable.get(i).matches(message)) {
+                return (short) i;
+            }
+        }
+        if (mStyleTable.size() > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many kinds of formatters");
+        }
+        mStyleTable.add(new Style(message));
+        return (short) (mStyleTable.size() - 1);
+    }
+
+    /**
+     * Add the day of the row which is the last row if it is a new day
+     */
+    private void appendDay(int row) {
+        long day = TimeUtils.getEpochDay(mTimes[row]);
+        int count = mSeparators.size();
+        if (count > 0 && mSeparators.get(count - 1).getEpochDay() == day) {
+            return;
+        }
+        if (count == mDayStarts.length) {
+            mDayStarts = Arrays.copyOf(mDayStarts, count * 2);
+        }
+        long startOfDay = TimeUtils.getStartOfDay(mTimes[row]);
+        String text = mStyleTable.get(mStyles[row]).formatDate(mTimes[row]);
+        mSeparators.add(new DateSeparator(day, startOfDay, text));
+        mDayStarts[count] = row;
+    }
+
+    /**
+     * Add the day of the row which was inserted at any position
+     */
+    private void insertDay(int row) {
+        long day = TimeUtils.getEpochDay(mTimes[row]);
+        int count = mSeparators.size();
+        //Find the first day which is not before the day
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mSeparators.get(mid).getEpochDay() < day) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int index = low;
+        if (index == count || mSeparators.get(index).getEpochDay() != day) {
+            if (count == mDayStarts.length) {
+                mDayStarts = Arrays.copyOf(mDayStarts, count * 2);
+            }
+            System.arraycopy(mDayStarts, index, mDayStarts, index + 1, count - index);
+            long startOfDay = TimeUtils.getStartOfDay(mTimes[row]);
+            String text = mStyleTable.get(mStyles[row]).formatDate(mTimes[row]);
+            mSeparators.add(index, new DateSeparator(day, startOfDay, text));
+            mDayStarts[index] = row;
+        }
+        //Following days start one row later
+        for (int i = index + 1; i < mSeparators.size(); i++) {
+            mDayStarts[i]++;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mTimes.length) {
+            return;
+        }
+        int newCapacity = Math.max(mTimes.length * 2, capacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mUserIds = Arrays.copyOf(mUserIds, newCapacity);
+        mStatuses = Arrays.copyOf(mStatuses, newCapacity);
+        mFlags = Arrays.copyOf(mFlags, newCapacity);
+        mTypes = Arrays.copyOf(mTypes, newCapacity);
+        mStyles = Arrays.copyOf(mStyles, newCapacity);
+        mTextStarts = Arrays.copyOf(mTextStarts, newCapacity);
+        mTextLengths = Arrays.copyOf(mTextLengths, newCapacity);
+        mPictures = Arrays.copyOf(mPictures, newCapacity);
+    }
+
+    /**
+     * Move rows from the row to the end by one to make room for a new row
+     */
+    private void shiftRows(int row) {
+        int count = mSize - row;
+        System.arraycopy(mTimes, row, mTimes, row + 1, count);
+        System.arraycopy(mIds, row, mIds, row + 1, count);
+        System.arraycopy(mUserIds, row, mUserIds, row + 1, count);
+        System.arraycopy(mStatuses, row, mStatuses, row + 1, count);
+        System.arraycopy(mFlags, row, mFlags, row + 1, count);
+        System.arraycopy(mTypes, row, mTypes, row + 1, count);
+        System.arraycopy(mStyles, row, mStyles, row + 1, count);
+        System.arraycopy(mTextStarts, row, mTextStarts, row + 1, count);
+        System.arraycopy(mTextLengths, row, mTextLengths, row + 1, count);
+        System.arraycopy(mPictures, row, mPictures, row + 1, count);
+    }
+
+    /**
+     * Rearrange all columns so that the new row i is the old row order[i]
+     */
+    private void reorderRows(int[] order) {
+        int capacity = mTimes.length;
+        long[] times = new long[capacity];
+        long[] ids = new long[capacity];
+        int[] userIds = new int[capacity];
+        int[] statuses = new int[capacity];
+        byte[] flags = new byte[capacity];
+        byte[] types = new byte[capacity];
+        short[] styles = new short[capacity];
+        int[] textStarts = new int[capacity];
+        int[] textLengths = new int[capacity];
+        Object[] pictures = new Object[capacity];
+        for (int i = 0; i < mSize; i++) {
+            int row = order[i];
+            times[i] = mTimes[row];
+            ids[i] = mIds[row];
+            userIds[i] = mUserIds[row];
+            statuses[i] = mStatuses[row];
+            flags[i] = mFlags[row];
+            types[i] = mTypes[row];
+            styles[i] = mStyles[row];
+            textStarts[i] = mTextStarts[row];
+            textLengths[i] = mTextLengths[row];
+            pictures[i] = mPictures[row];
+        }
+        mTimes = times;
+        mIds = ids;
+        mUserIds = userIds;
+        mStatuses = statuses;
+        mFlags = flags;
+        mTypes = types;
+        mStyles = styles;
+        mTextStarts = textStarts;
+        mTextLengths = textLengths;
+        mPictures = pictures;
+    }
+
+    private void clearWindow() {
+        Arrays.fill(mWindow, null);
+        Arrays.fill(mWindowRows, -1);
+    }
+}
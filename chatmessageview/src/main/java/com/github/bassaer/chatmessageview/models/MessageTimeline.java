@@ -0,0 +1,587 @@
+package com.github.bassaer.chatmessageview.models;
+
+import com.github.bassaer.chatmessageview.utils.MessageDateComparator;
+import com.github.bassaer.chatmessageview.utils.TimeUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Ordered timeline of messages and date separators.
+ * Items are inserted at their sorted position, so the list never needs a full re-sort.
+ */
+public class MessageTimeline {
+
+    /**
+     * All contents such as right message, left message, date label
+     */
+    private ArrayList<Object> mChatList = new ArrayList<>();
+    /**
+     * Only messages
+     */
+    private ArrayList<Message> mMessageList = new ArrayList<>();
+
+    /**
+     * Date label and message count of each day, keyed by days from epoch
+     */
+    private HashMap<Long, DaySlot> mDays = new HashMap<>();
+
+    /**
+     * Messages keyed by id
+     */
+    private HashMap<Long, Message> mMessagesById = new HashMap<>();
+
+    private final MessageDateComparator mComparator = new MessageDateComparator();
+
+    /**
+     * Created time of the last message of the status watermark.
+     * Right messages at or before that message in the timeline have the watermark status
+     * instead of their own status, such as all messages which were seen.
+     */
+    private long mWatermarkTime = Long.MIN_VALUE;
+    /**
+     * Ids of the messages created at the watermark time which are at or before the last message
+     */
+    private final HashSet<Long> mWatermarkTies = new HashSet<>();
+    private int mWatermarkStatus;
+    /**
+     * Ids of the messages in the range of the watermark which show their own status,
+     * because the status was changed or the message was added after the watermark was set
+     */
+    private final HashSet<Long> mStatusOverrides = new HashSet<>();
+
+    /**
+     * Incremented on every change of the chat list
+     */
+    private int mModCount;
+
+    private static class DaySlot {
+        private final DateSeparator separator;
+        private int count;
+
+        DaySlot(DateSeparator separator) {
+            this.separator = separator;
+        }
+    }
+
+    /**
+     * Insert message and its date separator if the day is not in the timeline yet
+     * @param message new message
+     * @return position of the message in the chat list
+     */
+    public int add(Message message) {
+        int position = insertionPoint(mChatList, message, mComparator);
+        long day = getDay(message);
+        DaySlot slot = mDays.get(day);
+        if (slot == null) {
+            //Set date label because of different day
+            long startOfDay = TimeUtils.getStartOfDay(message.getTimeInMillis());
+            slot = new DaySlot(new DateSeparator(day, startOfDay, message.getDateSeparateText()));
+            mDays.put(day, slot);
+            mChatList.add(position, slot.separator);
+            position++;
+        }
+        slot.count++;
+        mChatList.add(position, message);
+        mMessagesById.put(message.getId(), message);
+        addStatusOverride(message);
+        updateSenderGroups(position - 1, position + 1);
+        mModCount++;
+        mMessageList.add(insertionPoint(mMessageList, message, mComparator), message);
+        return position;
+    }
+
+    /**
+     * Merge messages into the timeline at once.
+     * New messages are sorted among themselves and merged with the current items in one pass.
+     * @param messages new messages
+     * @return the first position which was changed, or -1 if there is no message
+     */
+    public int addAll(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) {
+            return -1;
+        }
+        ArrayList<Message> newMessages = new ArrayList<>(messages);
+        Collections.sort(newMessages, mComparator);
+
+        ArrayList<Object> newItems = new ArrayList<>(newMessages.size() + 1);
+        for (Message message : newMessages) {
+            long day = getDay(message);
+            DaySlot slot = mDays.get(day);
+            if (slot == null) {
+                //Set date label because of different day
+                long startOfDay = TimeUtils.getStartOfDay(message.getTimeInMillis());
+                slot = new DaySlot(new DateSeparator(day, startOfDay, message.getDateSeparateText()));
+                mDays.put(day, slot);
+                newItems.add(slot.separator);
+            }
+            slot.count++;
+            newItems.add(message);
+            mMessagesById.put(message.getId(), message);
+            addStatusOverride(message);
+        }
+
+        int firstPosition = insertionPoint(mChatList, newItems.get(0), mComparator);
+        merge(mChatList, newItems, mComparator);
+        merge(mMessageList, newMessages, mComparator);
+        updateSenderGroups(firstPosition - 1, mChatList.size() - 1);
+        mModCount++;
+        return firstPosition;
+    }
+
+    /**
+     * Whether all messages are newer than the last item, so {@link #addAll(Collection)} only appends them
+     * @param messages new messages
+     * @return true if the current items are not moved
+     */
+    public boolean isAppendable(Collection<? extends Message> messages) {
+        if (mChatList.isEmpty()) {
+            return true;
+        }
+        Object last = mChatList.get(mChatList.size() - 1);
+        for (Message message : messages) {
+            if (mComparator.compare(last, message) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge sorted items into the sorted list.
+     * The list instance is kept because the adapter refers to it.
+     */
+    private static <T> void merge(ArrayList<T> list, List<T> newItems, Comparator<? super T> comparator) {
+        int size = list.size();
+        if (size == 0 || comparator.compare(list.get(size - 1), newItems.get(0)) <= 0) {
+            //All items are newer than the tail
+            list.addAll(newItems);
+            return;
+        }
+        ArrayList<T> merged = new ArrayList<>(size + newItems.size());
+        int i = 0;
+        int j = 0;
+        while (i < size && j < newItems.size()) {
+            if (comparator.compare(list.get(i), newItems.get(j)) <= 0) {
+                merged.add(list.get(i++));
+            } else {
+                merged.add(newItems.get(j++));
+            }
+        }
+        merged.addAll(list.subList(i, size));
+        merged.addAll(newItems.subList(j, newItems.size()));
+        list.clear();
+        list.addAll(merged);
+    }
+
+    /**
+     * Remove message.
+     * The date separator is also removed if the message was the last one of the day.
+     * The created time of the message must not be changed after it was added.
+     * @param message message to remove
+     * @return position where the message was in the chat list, or -1 if not found
+     */
+    public int remove(Message message) {
+        int position = indexOf(mChatList, message, mComparator);
+        if (position < 0) {
+            return -1;
+        }
+        mChatList.remove(position);
+        mMessageList.remove(indexOf(mMessageList, message, mComparator));
+        forgetMessage(message);
+
+        //Day of the separator is used, because the day of the message changes with the time zone
+        long day = findSeparator(position - 1).getEpochDay();
+        DaySlot slot = mDays.get(day);
+        slot.count--;
+        int start = position;
+        if (slot.count == 0) {
+            //The separator is just before the only message of the day
+            mDays.remove(day);
+            mChatList.remove(position - 1);
+            start--;
+        }
+        //Items around the removed ones are next to each other now
+        updateSenderGroups(start - 1, start);
+        mModCount++;
+        return position;
+    }
+
+    /**
+     * Remove the oldest messages at once, such as messages far from the viewport.
+     * Date separators of the days which have no message are also removed,
+     * and the separator of the day of the last removed message is moved to the top if the day has other messages.
+     * @param count number of messages to remove
+     * @return number of items removed from the top of the chat list, after which the top item may have changed
+     */
+    public int removeOldest(int count) {
+        count = Math.min(count, mMessageList.size());
+        if (count <= 0) {
+            return 0;
+        }
+        int end = indexOf(mChatList, mMessageList.get(count - 1), mComparator) + 1;
+        DaySlot slot = null;
+        for (int i = 0; i < end; i++) {
+            Object item = mChatList.get(i);
+            if (item instanceof DateSeparator) {
+                slot = mDays.get(((DateSeparator) item).getEpochDay());
+            } else {
+                slot.count--;
+                if (slot.count == 0) {
+                    mDays.remove(slot.separator.getEpochDay());
+                }
+                forgetMessage((Message) item);
+            }
+        }
+        mMessageList.subList(0, count).clear();
+        int removed = end;
+        if (slot.count > 0) {
+            //Separator of the day which continues is kept at the top
+            removed--;
+            mChatList.subList(0, removed).clear();
+            mChatList.set(0, slot.separator);
+        } else {
+            mChatList.subList(0, removed).clear();
+        }
+        updateSenderGroups(0, 1);
+        mModCount++;
+        return removed;
+    }
+
+    /**
+     * Remove the newest messages at once, such as messages far from the viewport.
+     * Date separators of the days which have no message are also removed.
+     * @param count number of messages to remove
+     * @return position of the first removed item, and all items after it were removed
+     */
+    public int removeNewest(int count) {
+        count = Math.min(count, mMessageList.size());
+        if (count <= 0) {
+            return mChatList.size();
+        }
+        int first = mMessageList.size() - count;
+        int start = indexOf(mChatList, mMessageList.get(first), mComparator);
+        for (int i = start; i < mChatList.size(); i++) {
+            Object item = mChatList.get(i);
+            if (item instanceof DateSeparator) {
+                //All messages of the day are after the separator
+                mDays.remove(((DateSeparator) item).getEpochDay());
+            } else {
+                forgetMessage((Message) item);
+            }
+        }
+        DaySlot slot = mDays.get(findSeparator(start - 1).getEpochDay());
+        if (slot != null) {
+            slot.count -= countMessagesFrom(start);
+            if (slot.count == 0) {
+                mDays.remove(slot.separator.getEpochDay());
+                start--;
+            }
+        }
+        mMessageList.subList(first, mMessageList.size()).clear();
+        mChatList.subList(start, mChatList.size()).clear();
+        updateSenderGroups(start - 1, start - 1);
+        mModCount++;
+        return start;
+    }
+
+    /**
+     * Count the messages from the position until the next date separator
+     */
+    private int countMessagesFrom(int position) {
+        int count = 0;
+        for (int i = position; i < mChatList.size() && mChatList.get(i) instanceof Message; i++) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Remove the message from the lookup by id
+     */
+    private void forgetMessage(Message message) {
+        if (mMessagesById.get(message.getId()) == message) {
+            mMessagesById.remove(message.getId());
+            mStatusOverrides.remove(message.getId());
+        }
+    }
+
+    /**
+     * Return the date separator of the day of the item
+     * @param position position of the item or of the separator
+     */
+    private DateSeparator findSeparator(int position) {
+        for (int i = position; ; i--) {
+            if (mChatList.get(i) instanceof DateSeparator) {
+                return (DateSeparator) mChatList.get(i);
+            }
+        }
+    }
+
+    /**
+     * Group messages by the days in the current time zone again, such as after the time zone was changed.
+     * All date separators are replaced, so the positions of the items change.
+     */
+    public void rebuildDays() {
+        mDays.clear();
+        ArrayList<Object> items = new ArrayList<>(mChatList.size());
+        DaySlot slot = null;
+        for (Message message : mMessageList) {
+            long day = getDay(message);
+            if (slot == null || slot.separator.getEpochDay() != day) {
+                long startOfDay = TimeUtils.getStartOfDay(message.getTimeInMillis());
+                slot = new DaySlot(new DateSeparator(day, startOfDay, message.getDateSeparateText()));
+                mDays.put(day, slot);
+                items.add(slot.separator);
+            }
+            slot.count++;
+            items.add(message);
+        }
+        //The list instance is kept because the adapter refers to it
+        mChatList.clear();
+        mChatList.addAll(items);
+        updateSenderGroups(0, mChatList.size() - 1);
+        mModCount++;
+    }
+
+    /**
+     * Remove all messages and date separators
+     */
+    public void clear() {
+        mChatList.clear();
+        mMessageList.clear();
+        mDays.clear();
+        mMessagesById.clear();
+        mWatermarkTime = Long.MIN_VALUE;
+        mWatermarkTies.clear();
+        mStatusOverrides.clear();
+        mModCount++;
+    }
+
+    /**
+     * Return the position of the message in the chat list.
+     * The created time of the message must not be changed after it was added.
+     * @param message message to find
+     * @return position of the message, or -1 if not found
+     */
+    public int indexOf(Message message) {
+        return indexOf(mChatList, message, mComparator);
+    }
+
+    /**
+     * Update sender groups of the messages in the range from their neighbours
+     * @param from first position to update
+     * @param to last position to update
+     */
+    private void updateSenderGroups(int from, int to) {
+        int last = Math.min(to, mChatList.size() - 1);
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            Object item = mChatList.get(i);
+            if (item instanceof Message) {
+                boolean isSameAsPrevious = i > 0 && isSameSender(mChatList.get(i - 1), item);
+                boolean isSameAsNext = i + 1 < mChatList.size() && isSameSender(item, mChatList.get(i + 1));
+                ((Message) item).setSenderGroup(Message.getSenderGroup(isSameAsPrevious, isSameAsNext));
+            }
+        }
+    }
+
+    private static boolean isSameSender(Object a, Object b) {
+        if (!(a instanceof Message) || !(b instanceof Message)) {
+            //Date separator splits the group
+            return false;
+        }
+        User userA = ((Message) a).getUser();
+        User userB = ((Message) b).getUser();
+        return userA != null && userB != null && userA.getId() == userB.getId();
+    }
+
+    /**
+     * Return the message of the id in O(1).
+     * Use {@link #indexOf(Message)} to know its position.
+     * @param id id of the message
+     * @return message, or null if not found
+     */
+    public Message getMessage(long id) {
+        return mMessagesById.get(id);
+    }
+
+    /**
+     * Set the status of all right messages at or before the message in the timeline, such as a read receipt.
+     * The status is kept as a watermark instead of changing each message, so moving the watermark costs O(1)
+     * except for the messages created at the same time.
+     * The watermark only moves forward, so an older receipt does not change messages which are already in the range.
+     * @param message last message of the range, which is in the timeline
+     * @param status new status
+     * @return true if the watermark was moved
+     */
+    public boolean setStatusUntil(Message message, int status) {
+        if (isInStatusWatermark(message)) {
+            //Older receipt than the current one
+            return false;
+        }
+        int position = indexOf(mMessageList, message, mComparator);
+        if (position < 0) {
+            return false;
+        }
+        long timeInMillis = message.getTimeInMillis();
+        mWatermarkTies.clear();
+        for (int i = position; i >= 0 && mMessageList.get(i).getTimeInMillis() == timeInMillis; i--) {
+            mWatermarkTies.add(mMessageList.get(i).getId());
+        }
+        mWatermarkTime = timeInMillis;
+        mWatermarkStatus = status;
+        //The latest receipt applies to all messages in the range
+        mStatusOverrides.clear();
+        return true;
+    }
+
+    /**
+     * Set the status of the message, which is shown even if the message is in the range of the watermark
+     * @param message message in the timeline
+     * @param status new status
+     */
+    public void setStatus(Message message, int status) {
+        message.setStatus(status);
+        addStatusOverride(message);
+    }
+
+    /**
+     * Return the status to show, which is the watermark status if the message is in its range
+     * @param message message in the timeline
+     * @return status of the message
+     */
+    public int getStatus(Message message) {
+        if (message.isRightMessage() && isInStatusWatermark(message)
+                && !mStatusOverrides.contains(message.getId())) {
+            return mWatermarkStatus;
+        }
+        return message.getStatus();
+    }
+
+    /**
+     * Whether the message is at or before the last message of the watermark in the order of the timeline
+     */
+    private boolean isInStatusWatermark(Message message) {
+        long timeInMillis = message.getTimeInMillis();
+        return timeInMillis < mWatermarkTime
+                || (timeInMillis == mWatermarkTime && mWatermarkTies.contains(message.getId()));
+    }
+
+    /**
+     * Keep the own status of the message if it is in the range of the watermark
+     */
+    private void addStatusOverride(Message message) {
+        if (isInStatusWatermark(message)) {
+            mStatusOverrides.add(message.getId());
+        }
+    }
+
+    /**
+     * Whether the date separator of the day exists
+     * @param timeInMillis any time of the day
+     * @return true if there are messages of the day
+     */
+    public boolean hasDateSeparator(long timeInMillis) {
+        return mDays.containsKey(TimeUtils.getEpochDay(timeInMillis));
+    }
+
+    private static long getDay(Message message) {
+        return TimeUtils.getEpochDay(message.getTimeInMillis());
+    }
+
+    /**
+     * Return the index after the last item which is not greater than the new item.
+     * Newer item than the tail is appended without searching.
+     * @param list sorted list
+     * @param item new item
+     * @param comparator comparator which the list is sorted by
+     * @return index to insert
+     */
+    static <T> int insertionPoint(List<T> list, T item, Comparator<? super T> comparator) {
+        int size = list.size();
+        if (size == 0 || comparator.compare(list.get(size - 1), item) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(list.get(mid), item) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the index of the item, searching only among the items sorted at the same time
+     * @param list sorted list
+     * @param item item to find
+     * @param comparator comparator which the list is sorted by
+     * @return index of the item or -1
+     */
+    static <T> int indexOf(List<T> list, T item, Comparator<? super T> comparator) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(list.get(mid), item) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = low; i < list.size() && comparator.compare(list.get(i), item) == 0; i++) {
+            if (list.get(i) == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return all contents such as right message, left message, date label
+     * @return chat list which is shown on the view
+     */
+    public ArrayList<Object> getChatList() {
+        return mChatList;
+    }
+
+    /**
+     * Return messages without date labels
+     * @return message list
+     */
+    public ArrayList<Message> getMessageList() {
+        return mMessageList;
+    }
+
+    /**
+     * Return change count to know whether a copy of the chat list is still up to date
+     * @return number of changes
+     */
+    public int getModCount() {
+        return mModCount;
+    }
+
+    public int size() {
+        return mChatList.size();
+    }
+
+    /**
+     * Return last object (right message or left message or {@link DateSeparator})
+     * @return last object of chat
+     */
+    public Object getLastChatObject() {
+        if (mChatList.size() == 0) {
+            return null;
+        }
+        return mChatList.get(mChatList.size() - 1);
+    }
+}
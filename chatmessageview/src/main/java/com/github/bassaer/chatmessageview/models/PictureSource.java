@@ -0,0 +1,141 @@
+package com.github.bassaer.chatmessageview.models;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reference to the picture of a message.
+ * The picture is decoded only when it is shown, at the size of the view.
+ */
+public class PictureSource {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Uri mUri;
+    private final String mPath;
+    private final byte[] mBytes;
+    /**
+     * Identifies the picture in the cache, which is computed from the content for bytes
+     */
+    private volatile String mKey;
+
+    private PictureSource(Uri uri, String path, byte[] bytes, String key) {
+        mUri = uri;
+        mPath = path;
+        mBytes = bytes;
+        mKey = key;
+    }
+
+    /**
+     * @param uri content or file uri of the picture
+     * @return picture source
+     */
+    public static PictureSource fromUri(Uri uri) {
+        return new PictureSource(uri, null, null, "uri:" + uri);
+    }
+
+    /**
+     * @param file picture file
+     * @return picture source
+     */
+    public static PictureSource fromFile(File file) {
+        return new PictureSource(null, file.getAbsolutePath(), null, "file:" + file.getAbsolutePath());
+    }
+
+    /**
+     * @param bytes encoded picture such as JPEG or PNG, which must not be changed later
+     * @return picture source
+     */
+    public static PictureSource fromBytes(byte[] bytes) {
+        return new PictureSource(null, null, bytes, null);
+    }
+
+    /**
+     * Decode the picture.
+     * Only the size is read if {@link BitmapFactory.Options#inJustDecodeBounds} is set.
+     * @param context context to open the uri
+     * @param options decoding options
+     * @return decoded picture, or null if it could not be decoded
+     * @throws IOException if the picture could not be read
+     */
+    public Bitmap decode(Context context, BitmapFactory.Options options) throws IOException {
+        if (mBytes != null) {
+            return BitmapFactory.decodeByteArray(mBytes, 0, mBytes.length, options);
+        }
+        if (mPath != null) {
+            return BitmapFactory.decodeFile(mPath, options);
+        }
+        InputStream inputStream = context.getContentResolver().openInputStream(mUri);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * @return path of the picture file, or null if the source is not a file
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return encoded picture, or null if the source is not bytes. The bytes must not be changed.
+     */
+    public byte[] getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Return the key of the decoded picture in the cache.
+     * Sources of the same bytes have the same key, so the picture is decoded once.
+     * The bytes are hashed on the first call, so call this in background.
+     * @return key of the picture
+     */
+    public String getKey() {
+        if (mKey == null) {
+            mKey = "bytes:" + hash(mBytes);
+        }
+        return mKey;
+    }
+
+    /**
+     * Return the key without hashing the bytes, such as on the UI thread
+     * @return key of the picture, or null if the bytes have not been hashed by {@link #getKey()} yet
+     */
+    public String getComputedKey() {
+        return mKey;
+    }
+
+    private static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            //Every platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest(bytes)) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
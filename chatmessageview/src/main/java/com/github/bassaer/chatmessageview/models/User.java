@@ -2,8 +2,11 @@ package com.github.bassaer.chatmessageview.models;
 
 import android.graphics.Bitmap;
 
+import com.github.bassaer.chatmessageview.utils.AvatarCache;
+
 /**
- * User object
+ * User object.
+ * Avatars are cached by id, so users of the same id must have the same icon and name.
  * Created by nakayama on 2017/01/12.
  */
 public class User {
@@ -31,6 +34,7 @@ public class User {
 
     public void setName(String name) {
         mName = name;
+        AvatarCache.getInstance().invalidate(mId);
     }
 
     public Bitmap getIcon() {
@@ -39,5 +43,6 @@ public class User {
 
     public void setIcon(Bitmap icon) {
         mIcon = icon;
+        AvatarCache.getInstance().invalidate(mId);
     }
 }
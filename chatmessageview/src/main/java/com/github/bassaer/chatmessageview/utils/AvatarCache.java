@@ -0,0 +1,154 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.v4.util.LruCache;
+
+import com.github.bassaer.chatmessageview.models.User;
+
+import java.util.Locale;
+
+/**
+ * Circular avatars shared in the process, keyed by user id and pixel size.
+ * Users without icon get an avatar of their initials.
+ */
+public class AvatarCache {
+
+    private static AvatarCache sInstance;
+
+    /**
+     * Background colors of initials avatars, chosen by user id
+     */
+    private static final int[] INITIALS_COLORS = {
+            0xFFE57373, 0xFFF06292, 0xFFBA68C8, 0xFF7986CB,
+            0xFF4FC3F7, 0xFF4DB6AC, 0xFF81C784, 0xFFFFB74D
+    };
+
+    /**
+     * Background color of the avatar of the user without name
+     */
+    private static final int NO_NAME_COLOR = 0xFF90A4AE;
+
+    /**
+     * Rendered avatars bounded by kilobytes, keyed by {@link #getKey(int, int)}
+     */
+    private final LruCache<Long, Bitmap> mCache;
+
+    public static synchronized AvatarCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new AvatarCache();
+        }
+        return sInstance;
+    }
+
+    private AvatarCache() {
+        //Use 1/16 of the memory which the app can use
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 16);
+        mCache = new LruCache<Long, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Return the circular avatar of the user, rendering it only if it is not cached
+     * @param user user to show
+     * @param size width and height in pixels
+     * @return cached avatar
+     */
+    public Bitmap getAvatar(User user, int size) {
+        long key = getKey(user.getId(), size);
+        Bitmap avatar = mCache.get(key);
+        if (avatar == null) {
+            avatar = user.getIcon() != null
+                    ? createCircleBitmap(user.getIcon(), size)
+                    : createInitialsBitmap(user, size);
+            mCache.put(key, avatar);
+        }
+        return avatar;
+    }
+
+    /**
+     * Remove avatars of the user after the icon or name was changed
+     * @param userId id of the user
+     */
+    public void invalidate(int userId) {
+        for (Long key : mCache.snapshot().keySet()) {
+            if (getUserId(key) == userId) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Pack the user id into the upper 32 bits and the size into the lower 32 bits,
+     * so no text is built for each bind
+     */
+    static long getKey(int userId, int size) {
+        return (long) userId << 32 | (size & 0xFFFFFFFFL);
+    }
+
+    static int getUserId(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Scale the center of the icon to the size and crop it into a circle
+     */
+    private static Bitmap createCircleBitmap(Bitmap icon, int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        float scale = (float) size / Math.min(icon.getWidth(), icon.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((size - icon.getWidth() * scale) / 2, (size - icon.getHeight() * scale) / 2);
+        BitmapShader shader = new BitmapShader(icon, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(shader);
+        new Canvas(bitmap).drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        return bitmap;
+    }
+
+    private static Bitmap createInitialsBitmap(User user, int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        String initials = getInitials(user.getName());
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(initials.isEmpty() ? NO_NAME_COLOR
+                : INITIALS_COLORS[(user.getId() % INITIALS_COLORS.length + INITIALS_COLORS.length) % INITIALS_COLORS.length]);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+
+        paint.setColor(Color.WHITE);
+        paint.setTextSize(size * 0.4f);
+        paint.setTextAlign(Paint.Align.CENTER);
+        //Put the center of the text at the center of the circle
+        float baseline = size / 2f - (paint.descent() + paint.ascent()) / 2;
+        canvas.drawText(initials, size / 2f, baseline, paint);
+        return bitmap;
+    }
+
+    /**
+     * Return the first letters of the first and last words
+     * @param name user name
+     * @return up to 2 upper case letters, or empty text if there is no name
+     */
+    public static String getInitials(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return "";
+        }
+        String[] words = name.trim().split("\\s+");
+        StringBuilder initials = new StringBuilder();
+        initials.appendCodePoint(words[0].codePointAt(0));
+        if (words.length > 1) {
+            initials.appendCodePoint(words[words.length - 1].codePointAt(0));
+        }
+        return initials.toString().toUpperCase(Locale.getDefault());
+    }
+}
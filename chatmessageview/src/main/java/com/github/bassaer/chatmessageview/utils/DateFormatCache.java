@@ -0,0 +1,92 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiled date patterns shared by formatters.
+ * SimpleDateFormat is not thread safe, so each thread has its own formats.
+ * Formats are rebuilt after the default locale changes or {@link #invalidate()} is called.
+ * The default time zone is read only by {@link #invalidate()}, because {@link TimeZone#getDefault()} returns a copy.
+ */
+public class DateFormatCache {
+
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static volatile Locale sLocale = Locale.getDefault();
+    /**
+     * Default time zone when the formats were built, which {@link TimeUtils#getEpochDay(long)} also follows
+     */
+    private static volatile TimeZone sTimeZone = TimeZone.getDefault();
+
+    private static final ThreadLocal<Formats> sFormats = new ThreadLocal<Formats>() {
+        @Override
+        protected Formats initialValue() {
+            return new Formats();
+        }
+    };
+
+    private static class Formats {
+        private final HashMap<String, SimpleDateFormat> formats = new HashMap<>();
+        private final Date date = new Date();
+        private int generation = -1;
+    }
+
+    /**
+     * Format the time in the default locale and {@link #getTimeZone()}
+     * @param timeInMillis time to format
+     * @param pattern pattern of {@link SimpleDateFormat}
+     * @return formatted text
+     */
+    public static String format(long timeInMillis, String pattern) {
+        Formats formats = sFormats.get();
+        int generation = getGeneration();
+        if (formats.generation != generation) {
+            formats.formats.clear();
+            formats.generation = generation;
+        }
+        SimpleDateFormat format = formats.formats.get(pattern);
+        if (format == null) {
+            format = new SimpleDateFormat(pattern, Locale.getDefault());
+            format.setTimeZone(sTimeZone);
+            formats.formats.put(pattern, format);
+        }
+        formats.date.setTime(timeInMillis);
+        return format.format(formats.date);
+    }
+
+    /**
+     * Return the number which changes when formatted texts may change
+     * @return generation of formats
+     */
+    public static int getGeneration() {
+        Locale locale = Locale.getDefault();
+        if (locale != sLocale) {
+            sLocale = locale;
+            sGeneration.incrementAndGet();
+        }
+        return sGeneration.get();
+    }
+
+    /**
+     * Return the time zone of formatted texts
+     * @return default time zone when {@link #invalidate()} was last called
+     */
+    public static TimeZone getTimeZone() {
+        return sTimeZone;
+    }
+
+    /**
+     * Read the default time zone again and rebuild formats and formatted texts,
+     * such as after {@link android.content.Intent#ACTION_TIMEZONE_CHANGED}.
+     * Attached {@link com.github.bassaer.chatmessageview.views.MessageView}s call this when the time zone changes.
+     */
+    public static void invalidate() {
+        sTimeZone = TimeZone.getDefault();
+        sGeneration.incrementAndGet();
+    }
+}
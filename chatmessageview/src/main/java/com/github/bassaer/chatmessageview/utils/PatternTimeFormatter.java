@@ -0,0 +1,37 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import java.util.Calendar;
+
+/**
+ * Time formatter of a date pattern.
+ * The text depends only on the time, so messages keep the formatted text instead of formatting on every bind.
+ */
+public class PatternTimeFormatter implements ITimeFormatter {
+
+    private final String mPattern;
+
+    /**
+     * @param pattern pattern of {@link java.text.SimpleDateFormat}
+     */
+    public PatternTimeFormatter(String pattern) {
+        mPattern = pattern;
+    }
+
+    @Override
+    public String getFormattedTimeText(Calendar createdAt) {
+        return format(createdAt.getTimeInMillis());
+    }
+
+    /**
+     * Format the time without creating Calendar
+     * @param timeInMillis time to format
+     * @return formatted text
+     */
+    public String format(long timeInMillis) {
+        return DateFormatCache.format(timeInMillis, mPattern);
+    }
+
+    public String getPattern() {
+        return mPattern;
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.github.bassaer.chatmessageview.models.PictureSource;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Decode pictures in background at the size of the view and keep them in a memory cache
+ */
+public class PictureLoader {
+
+    private static final String TAG = "PictureLoader";
+
+    private static PictureLoader sInstance;
+
+    private final Context mContext;
+
+    /**
+     * Decoded pictures keyed by the source and the size, bounded by kilobytes
+     */
+    private final LruCache<String, Bitmap> mCache;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized PictureLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PictureLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PictureLoader(Context context) {
+        mContext = context;
+        //Use 1/8 of the memory which the app can use
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Return the picture decoded at the size if it is in the cache.
+     * Bytes which have not been hashed yet are not hashed here, and they are found by {@link #load} in background.
+     * @param source picture source
+     * @param width width of the view
+     * @param height height of the view
+     * @return cached picture or null
+     */
+    public Bitmap getCachedBitmap(PictureSource source, int width, int height) {
+        String key = source.getComputedKey();
+        return key != null ? mCache.get(getKey(key, width, height)) : null;
+    }
+
+    /**
+     * Decode the picture in background and set it to the view on the UI thread.
+     * Cancel the returned task when the view is bound to another picture.
+     * @param source picture source
+     * @param width width of the view
+     * @param height height of the view
+     * @param target view to show the picture
+     * @return running task
+     */
+    public Future<?> load(final PictureSource source, final int width, final int height, ImageView target) {
+        LoadTask task = new LoadTask(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return decode(source, width, height);
+            }
+        }, target);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(task);
+        return task;
+    }
+
+    private Bitmap decode(PictureSource source, int width, int height) throws Exception {
+        //Bytes are hashed here, and the same picture of another source is not decoded again
+        String key = getKey(source.getKey(), width, height);
+        Bitmap cached = mCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        //Read only the size first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(mContext, options);
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = source.decode(mContext, options);
+        if (bitmap != null) {
+            mCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private static String getKey(String sourceKey, int width, int height) {
+        return sourceKey + "@" + width + "x" + height;
+    }
+
+    /**
+     * Return the largest power of 2 which keeps the decoded picture larger than the requested size
+     * @param srcWidth width of the picture
+     * @param srcHeight height of the picture
+     * @param reqWidth width of the view
+     * @param reqHeight height of the view
+     * @return sample size for {@link BitmapFactory.Options#inSampleSize}
+     */
+    public static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (srcWidth / (inSampleSize * 2) >= reqWidth && srcHeight / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private class LoadTask extends FutureTask<Bitmap> {
+        private final ImageView mTarget;
+        /**
+         * Set on the UI thread, so a finished result is not set after cancel
+         */
+        private volatile boolean mCancelled = false;
+
+        LoadTask(Callable<Bitmap> callable, ImageView target) {
+            super(callable);
+            mTarget = target;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            mCancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap;
+            try {
+                bitmap = get();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to decode picture", e);
+                return;
+            }
+            if (bitmap == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mTarget.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
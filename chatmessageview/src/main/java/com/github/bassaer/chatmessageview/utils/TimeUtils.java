@@ -1,7 +1,6 @@
 package com.github.bassaer.chatmessageview.utils;
 
 
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
 /**
@@ -9,6 +8,8 @@ import java.util.Calendar;
  */
 public class TimeUtils {
 
+    public static final long MILLIS_OF_DAY = 1000 * 60 * 60 * 24;
+
     /***
      * Return formatted text of calendar
     * @param calendar Calendar object to format
@@ -19,8 +20,7 @@ public class TimeUtils {
         if (format == null) {
             format = "HH:mm";
         }
-        SimpleDateFormat sdf = new SimpleDateFormat(format);
-        return sdf.format(calendar.getTime());
+        return DateFormatCache.format(calendar.getTimeInMillis(), format);
     }
 
     /**
@@ -34,4 +34,46 @@ public class TimeUtils {
         int millisOfDay = 1000 * 60 * 60 * 24;
         return (int)(timeDiff / millisOfDay);
     }
+
+    /**
+     * Return days from epoch in the time zone of {@link DateFormatCache#getTimeZone()}.
+     * Messages which were sent on the same local day have the same value.
+     * @param timeInMillis target time
+     * @return days from 1970/01/01
+     */
+    public static long getEpochDay(long timeInMillis) {
+        long localTime = timeInMillis + DateFormatCache.getTimeZone().getOffset(timeInMillis);
+        long day = localTime / MILLIS_OF_DAY;
+        if (localTime % MILLIS_OF_DAY < 0) {
+            day--;
+        }
+        return day;
+    }
+
+    /**
+     * Return the start time of the day in the time zone of {@link DateFormatCache#getTimeZone()}
+     * @param timeInMillis any time of the day
+     * @return time of 00:00:00.000
+     */
+    public static long getStartOfDay(long timeInMillis) {
+        Calendar calendar = Calendar.getInstance(DateFormatCache.getTimeZone());
+        calendar.setTimeInMillis(timeInMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Return the start time of the next day in the time zone of {@link DateFormatCache#getTimeZone()}
+     * @param timeInMillis any time of the day
+     * @return time of 00:00:00.000 of the next day
+     */
+    public static long getStartOfNextDay(long timeInMillis) {
+        Calendar calendar = Calendar.getInstance(DateFormatCache.getTimeZone());
+        calendar.setTimeInMillis(getStartOfDay(timeInMillis));
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
 }
@@ -7,19 +7,26 @@ import android.os.Handler;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.drawable.DrawableCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 
 import com.github.bassaer.chatmessageview.R;
+import com.github.bassaer.chatmessageview.models.IMessagePagingSource;
 import com.github.bassaer.chatmessageview.models.Message;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * Chat view with edit view and send button
  * Created by nakayama on 2016/08/08.
@@ -30,6 +37,7 @@ public class ChatView extends LinearLayout {
     private ImageButton mSendButton;
     private ImageButton mOptionButton;
     private SwipeRefreshLayout mChatContainer;
+    private TextView mNewMessageBadge;
     private InputMethodManager mInputMethodManager;
     private int mSendIconId = R.drawable.ic_action_send;
     private int mOptionIconId = R.drawable.ic_action_add;
@@ -57,13 +65,22 @@ public class ChatView extends LinearLayout {
         mOptionButton = (ImageButton) layout.findViewById(R.id.option_button);
         mChatContainer = (SwipeRefreshLayout) layout.findViewById(R.id.chat_container);
         mChatContainer.setEnabled(false);
+        mNewMessageBadge = (TextView) layout.findViewById(R.id.new_message_badge);
 
         mMessageView.setFocusableInTouchMode(true);
         //if touched Chat screen
-        mMessageView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        final GestureDetector gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+            public boolean onSingleTapUp(MotionEvent e) {
                 hideKeyboard();
+                return false;
+            }
+        });
+        mMessageView.addOnItemTouchListener(new RecyclerView.SimpleOnItemTouchListener() {
+            @Override
+            public boolean onInterceptTouchEvent(RecyclerView recyclerView, MotionEvent e) {
+                gestureDetector.onTouchEvent(e);
+                return false;
             }
         });
 
@@ -85,13 +102,31 @@ public class ChatView extends LinearLayout {
                         @Override
                         public void run() {
                             //Scroll to end
-                            mMessageView.scrollToEnd();
+                            mMessageView.scrollToLoadedEnd();
                         }
                     }, 500);
                 }
             }
         });
 
+        //Show the number of messages received while reading history
+        mMessageView.setOnUnreadCountChangeListener(new MessageView.OnUnreadCountChangeListener() {
+            @Override
+            public void onUnreadCountChanged(int count) {
+                if (count > 0) {
+                    mNewMessageBadge.setText(getResources().getQuantityString(R.plurals.new_messages, count, count));
+                    mNewMessageBadge.setVisibility(VISIBLE);
+                } else {
+                    mNewMessageBadge.setVisibility(GONE);
+                }
+            }
+        });
+        mNewMessageBadge.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mMessageView.jumpToEnd();
+            }
+        });
     }
 
     /**
@@ -116,10 +151,15 @@ public class ChatView extends LinearLayout {
 
 
     /**
-     * Set message to right side
+     * Set message to right side.
+     * This can be called from any thread, then the message is added after it is prepared in background.
      * @param message Sent message
      */
     public void send(Message message) {
+        if (!MessagePipeline.isUiThread()) {
+            mMessageView.postMessages(Collections.singletonList(message));
+            return;
+        }
         mMessageView.setMessage(message);
 
         //Hide keyboard after post
@@ -133,16 +173,88 @@ public class ChatView extends LinearLayout {
     }
 
     /**
-     * Set message to left side
+     * Set message to left side.
+     * On the UI thread the message is added immediately, so the chat list contains it when this returns.
+     * This can be called from any thread, then the message is prepared in background
+     * and added in a display frame together with other received messages,
+     * so a burst of messages from a network thread does not drop frames.
      * @param message Received message
      */
     public void receive(Message message) {
-        mMessageView.setMessage(message);
+        if (!MessagePipeline.isUiThread()) {
+            mMessageView.postMessages(Collections.singletonList(message));
+            return;
+        }
+        //Scrolled if the end is shown
+        mMessageView.receiveMessage(message);
+    }
+
+    /**
+     * Set messages to right side at once.
+     * This can be called from any thread in the same way as {@link #send(Message)}.
+     * @param messages Sent messages
+     */
+    public void sendAll(Collection<? extends Message> messages) {
+        if (!MessagePipeline.isUiThread()) {
+            mMessageView.postMessages(messages);
+            return;
+        }
+        mMessageView.addMessages(messages);
+
+        //Hide keyboard after post
+        if (mAutoHidingKeyboard) {
+            hideKeyboard();
+        }
+        //Move to bottom after post
         if (mAutoScroll) {
-            mMessageView.scrollToEnd();
+            mMessageView.jumpToEnd();
+        }
+    }
+
+    /**
+     * Set messages to left side at once such as restored history.
+     * This can be called from any thread in the same way as {@link #send(Message)}.
+     * @param messages Received messages
+     */
+    public void receiveAll(Collection<? extends Message> messages) {
+        if (!MessagePipeline.isUiThread()) {
+            mMessageView.postMessages(messages);
+            return;
+        }
+        mMessageView.addMessages(messages);
+        if (mAutoScroll) {
+            mMessageView.jumpToEnd();
         }
     }
 
+    /**
+     * Remove message from the chat
+     * @param message Sent or received message
+     */
+    public void removeMessage(Message message) {
+        mMessageView.removeMessage(message);
+    }
+
+    /**
+     * Change the status of the message such as delivered or seen
+     * @param id id of the message
+     * @param status new status
+     * @return true if the message was found
+     */
+    public boolean updateStatus(long id, int status) {
+        return mMessageView.updateStatus(id, status);
+    }
+
+    /**
+     * Change the status of all sent messages up to the message, such as "seen" of a read receipt
+     * @param id id of the last message which has the status
+     * @param status new status
+     * @return true if the message was found
+     */
+    public boolean updateStatusUntil(long id, int status) {
+        return mMessageView.updateStatusUntil(id, status);
+    }
+
     public void setInputText(String input) {
         mInputText.setText(input);
     }
@@ -238,10 +350,20 @@ public class ChatView extends LinearLayout {
 
     /**
      * Auto Scroll when message received.
+     * While older messages are shown, the position is kept and the number of new messages is shown instead.
      * @param enable Whether auto scroll is enable or not
      */
     public void setAutoScroll(boolean enable) {
         mAutoScroll = enable;
+        mMessageView.setAutoScroll(enable);
+    }
+
+    /**
+     * Set the max number of received messages which are added in a display frame
+     * @param messagesPerFrame number of messages, at least 1
+     */
+    public void setFrameBudget(int messagesPerFrame) {
+        mMessageView.setFrameBudget(messagesPerFrame);
     }
 
     public void setMessageMarginTop(int px) {
@@ -284,6 +406,32 @@ public class ChatView extends LinearLayout {
         mChatContainer.setRefreshing(refreshing);
     }
 
+    /**
+     * Load messages page by page from the source.
+     * Older pages are loaded on pull or when scrolled near the top.
+     * @param source source of history pages
+     * @param pageSize number of messages in a page
+     * @param maxMessageCount max number of messages kept in memory, at least twice of the page size
+     */
+    public void setPagingSource(IMessagePagingSource source, int pageSize, int maxMessageCount) {
+        mChatContainer.setEnabled(true);
+        mChatContainer.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
+            @Override
+            public void onRefresh() {
+                if (!mMessageView.loadOlderPage()) {
+                    mChatContainer.setRefreshing(false);
+                }
+            }
+        });
+        mMessageView.setOnPageLoadListener(new MessageView.OnPageLoadListener() {
+            @Override
+            public void onPageLoaded() {
+                mChatContainer.setRefreshing(false);
+            }
+        });
+        mMessageView.setPagingSource(source, pageSize, maxMessageCount);
+    }
+
     public void setEnableSwipeRefresh(boolean enable) {
         mChatContainer.setEnabled(enable);
     }
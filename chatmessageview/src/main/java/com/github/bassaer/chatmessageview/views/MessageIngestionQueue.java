@@ -0,0 +1,149 @@
+package com.github.bassaer.chatmessageview.views;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import com.github.bassaer.chatmessageview.models.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Queue of incoming messages which are added once per display frame.
+ * Up to the budget of messages are added in a frame.
+ * When the backlog grows over a few frames of budget, all of them are merged at once,
+ * so a burst costs one bulk merge instead of falling further behind.
+ * All methods must be called on the UI thread.
+ */
+class MessageIngestionQueue {
+
+    interface OnApplyListener {
+        /**
+         * Called in a frame with the messages to add
+         * @param messages messages in the order they were queued
+         */
+        void onApply(List<Message> messages);
+    }
+
+    static final int DEFAULT_FRAME_BUDGET = 20;
+
+    /**
+     * Backlog over this number of frames of budget is merged at once
+     */
+    private static final int COLLAPSE_FRAMES = 4;
+
+    /**
+     * Frame interval for the devices without Choreographer
+     */
+    private static final long FRAME_INTERVAL = 16;
+
+    private final ArrayDeque<Message> mBacklog = new ArrayDeque<>();
+
+    private final OnApplyListener mListener;
+
+    private int mFrameBudget = DEFAULT_FRAME_BUDGET;
+
+    private boolean mFrameScheduled = false;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    private Choreographer.FrameCallback mFrameCallback;
+
+    MessageIngestionQueue(OnApplyListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queue messages which are added in the next frame
+     * @param messages new messages
+     */
+    void enqueue(Collection<? extends Message> messages) {
+        mBacklog.addAll(messages);
+        scheduleFrame();
+    }
+
+    /**
+     * Remove the message if it is not added yet
+     * @param message message to remove
+     * @return true if the message was in the queue
+     */
+    boolean remove(Message message) {
+        return mBacklog.remove(message);
+    }
+
+    /**
+     * Find the message which is not added yet
+     * @param id id of the message
+     * @return message or null
+     */
+    Message find(long id) {
+        for (Message message : mBacklog) {
+            if (message.getId() == id) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the max number of messages which are added in a frame
+     * @param frameBudget number of messages, at least 1
+     */
+    void setFrameBudget(int frameBudget) {
+        if (frameBudget < 1) {
+            throw new IllegalArgumentException("frameBudget must be at least 1");
+        }
+        mFrameBudget = frameBudget;
+    }
+
+    private void scheduleFrame() {
+        if (mFrameScheduled || mBacklog.isEmpty()) {
+            return;
+        }
+        mFrameScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            mHandler.postDelayed(mFrameRunnable, FRAME_INTERVAL);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    MessageIngestionQueue.this.doFrame();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    private void doFrame() {
+        mFrameScheduled = false;
+        int size = mBacklog.size();
+        //Collapse a large backlog into one merge
+        int count = size > mFrameBudget * COLLAPSE_FRAMES ? size : Math.min(size, mFrameBudget);
+        ArrayList<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(mBacklog.poll());
+        }
+        if (!messages.isEmpty()) {
+            mListener.onApply(messages);
+        }
+        scheduleFrame();
+    }
+}
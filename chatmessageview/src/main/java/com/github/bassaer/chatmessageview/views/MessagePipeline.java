@@ -0,0 +1,103 @@
+package com.github.bassaer.chatmessageview.views;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.utils.MessageDateComparator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects messages submitted from any thread.
+ * Messages are sorted and their texts are formatted on a background thread,
+ * then handed to the UI thread in batches.
+ * Only one batch is prepared at a time, so batches are delivered in the order they were submitted.
+ */
+class MessagePipeline {
+
+    interface OnBatchListener {
+        /**
+         * Called on the UI thread
+         * @param messages messages sorted by created time
+         */
+        void onBatch(List<Message> messages);
+    }
+
+    private final ConcurrentLinkedQueue<Message> mQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the worker is running or about to run
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final OnBatchListener mListener;
+
+    private final MessageDateComparator mComparator = new MessageDateComparator();
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            final ArrayList<Message> batch = new ArrayList<>();
+            Message message;
+            while ((message = mQueue.poll()) != null) {
+                batch.add(message);
+            }
+            if (!batch.isEmpty()) {
+                Collections.sort(batch, mComparator);
+                for (Message item : batch) {
+                    //Texts are kept in the message, so the UI thread does not format them
+                    item.getTimeText();
+                    item.getDateSeparateText();
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onBatch(batch);
+                    }
+                });
+            }
+            mScheduled.set(false);
+            if (!mQueue.isEmpty()) {
+                //Submitted while this batch was prepared
+                schedule();
+            }
+        }
+    };
+
+    MessagePipeline(OnBatchListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Submit messages from any thread.
+     * Messages must not be changed until they are handed to the UI thread.
+     * @param messages new messages
+     */
+    void submit(Collection<? extends Message> messages) {
+        mQueue.addAll(messages);
+        schedule();
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(mWorker);
+        }
+    }
+
+    /**
+     * Whether the current thread is the UI thread
+     * @return true on the UI thread
+     */
+    static boolean isUiThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+}
@@ -1,55 +1,265 @@
 package com.github.bassaer.chatmessageview.views;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.AsyncTask;
 import android.os.Handler;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.view.View;
-import android.widget.ListView;
 
+import com.github.bassaer.chatmessageview.models.DateSeparator;
+import com.github.bassaer.chatmessageview.models.IMessagePagingSource;
 import com.github.bassaer.chatmessageview.models.Message;
-import com.github.bassaer.chatmessageview.utils.MessageDateComparator;
+import com.github.bassaer.chatmessageview.models.MessageArchive;
+import com.github.bassaer.chatmessageview.models.MessageTimeline;
+import com.github.bassaer.chatmessageview.utils.DateFormatCache;
+import com.github.bassaer.chatmessageview.utils.TimeUtils;
 import com.github.bassaer.chatmessageview.views.adapters.MessageAdapter;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Simple chat view
  * Created by nakayama on 2016/08/08.
  */
-public class MessageView extends ListView implements View.OnFocusChangeListener{
+public class MessageView extends RecyclerView implements View.OnFocusChangeListener{
 
     /**
-     * All contents such as right message, left message, date label
+     * All contents such as right message, left message, date label in order
      */
-    private ArrayList<Object> mChatList = new ArrayList<>();
-    /**
-     * Only messages
-     */
-    private ArrayList<Message> mMessageList = new ArrayList<>();
+    private MessageTimeline mTimeline = new MessageTimeline();
 
     private MessageAdapter mMessageAdapter;
 
+    /**
+     * Archive which is shown instead of the timeline, or null
+     */
+    private MessageArchive mArchive;
+
     private OnKeyboardAppearListener mOnKeyboardAppearListener;
 
     /**
-     * MessageView is refreshed at this time
+     * Time texts of recent messages are refreshed at this interval
      */
     private long mRefreshInterval = 60000;
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Refresh time texts of visible rows and schedule the next refresh
+     */
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshVisibleTimeTexts();
+            scheduleRefresh();
+        }
+    };
+
+    private boolean mRefreshScheduled = false;
+
+    /**
+     * Rebuilds time texts while attached, because the time zone is not read on every format
+     */
+    private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            DateFormatCache.invalidate();
+            //Messages may be on other days in the new time zone
+            if (mArchive != null) {
+                mArchive.rebuildDays();
+            } else {
+                mTimeline.rebuildDays();
+            }
+            if (mMessageAdapter != null) {
+                mMessageAdapter.notifyDataSetChanged();
+            }
+            rescheduleRefresh();
+        }
+    };
+
+    private boolean mAttached = false;
+
+    /**
+     * Whether the adapter shows a copy of the timeline while the difference is calculated in background
+     */
+    private boolean mDiffRunning = false;
+
+    /**
+     * Move to the end after the running difference is applied
+     */
+    private boolean mPendingJumpToEnd = false;
+
+    /**
+     * Incremented when all messages are discarded, so results of earlier requests are ignored
+     */
+    private int mResetCount;
+
+    /**
+     * Source of history pages, or null if all messages are set directly
+     */
+    private IMessagePagingSource mPagingSource;
+    private int mPageSize;
     /**
-     * Refresh scheduler
+     * Messages over this count are dropped from the far side of the viewport
      */
-    private Timer mRefreshTimer;
+    private int mMaxMessageCount;
+    private boolean mHasOlderPages = false;
+    private boolean mHasNewerPages = false;
+    private boolean mLoadingOlderPage = false;
+    private boolean mLoadingNewerPage = false;
+    private OnPageLoadListener mOnPageLoadListener;
 
-    private Handler mHandler;
+    /**
+     * Live messages newer than the loaded messages, which are added when the newer pages are loaded
+     */
+    private final ArrayList<Message> mPendingMessages = new ArrayList<>();
+
+    private OnMessagesPostedListener mOnMessagesPostedListener;
+
+    /**
+     * Sorts and formats messages posted from other threads in background
+     */
+    private final MessagePipeline mPipeline = new MessagePipeline(new MessagePipeline.OnBatchListener() {
+        @Override
+        public void onBatch(List<Message> messages) {
+            mIngestionQueue.enqueue(messages);
+        }
+    });
+
+    /**
+     * Adds incoming messages once per display frame
+     */
+    private final MessageIngestionQueue mIngestionQueue = new MessageIngestionQueue(new MessageIngestionQueue.OnApplyListener() {
+        @Override
+        public void onApply(List<Message> messages) {
+            addReceivedMessages(messages);
+            if (mOnMessagesPostedListener != null) {
+                mOnMessagesPostedListener.onMessagesPosted();
+            }
+        }
+    });
+
+    /**
+     * Next page is loaded when the visible row is within this count from the edge
+     */
+    private static final int PREFETCH_DISTANCE = 5;
+
+    /**
+     * Message which is kept at the same place on screen while rows are inserted or removed above it
+     */
+    private Message mAnchorMessage;
+    private int mAnchorOffset;
+
+    /**
+     * Follow new messages while the end is shown
+     */
+    private boolean mAutoScroll = true;
+
+    /**
+     * Number of messages added while the end was not shown
+     */
+    private int mUnreadCount = 0;
+
+    private OnUnreadCountChangeListener mOnUnreadCountChangeListener;
+
+    /**
+     * Whether the scroll to the end is posted for the next frame
+     */
+    private boolean mScrollToEndPending = false;
+
+    /**
+     * Whether the smooth scroll to the end is running
+     */
+    private boolean mScrollingToEnd = false;
+
+    /**
+     * The end is regarded as shown when the last visible row is within this count from the last item
+     */
+    private static final int END_DISTANCE = 1;
+
+    /**
+     * Scroll to the end once for all the requests in a frame
+     */
+    private final Runnable mScrollToEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScrollToEndPending = false;
+            if (mDiffRunning) {
+                mPendingJumpToEnd = true;
+                return;
+            }
+            int last = mMessageAdapter.getItemCount() - 1;
+            if (last < 0) {
+                return;
+            }
+            int lastVisible = ((LinearLayoutManager) getLayoutManager()).findLastVisibleItemPosition();
+            if (lastVisible == NO_POSITION || last - lastVisible > getChildCount()) {
+                //Animating over more than a screen only shows a blur of rows
+                scrollToPosition(last);
+            } else {
+                mScrollingToEnd = true;
+                smoothScrollToPosition(last);
+            }
+        }
+    };
+
+    private final OnScrollListener mPageScrollListener = new OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            loadPageNearEdge(dy);
+            if (mUnreadCount > 0 && isShowingEnd()) {
+                setUnreadCount(0);
+            }
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState != SCROLL_STATE_SETTLING) {
+                //Finished or interrupted by the user
+                mScrollingToEnd = false;
+            }
+        }
+    };
 
 
     public interface OnKeyboardAppearListener {
         void onKeyboardAppeared(boolean hasChanged);
     }
 
+    public interface OnMessagesPostedListener {
+        /**
+         * Called on the UI thread when messages posted by {@link #postMessages(Collection)}
+         * or {@link #enqueueMessage(Message)} were added
+         */
+        void onMessagesPosted();
+    }
+
+    public interface OnUnreadCountChangeListener {
+        /**
+         * Called when messages were added while the end was not shown, or the end was shown again
+         * @param count number of messages added since the end was shown
+         */
+        void onUnreadCountChanged(int count);
+    }
+
+    public interface OnPageLoadListener {
+        /**
+         * Called when a requested page was loaded
+         */
+        void onPageLoaded();
+    }
+
     public MessageView(Context context, ArrayList<Message> messages) {
         super(context);
         init(messages);
@@ -68,71 +278,825 @@ public class MessageView extends ListView implements View.OnFocusChangeListener{
 
 
     public void init(ArrayList<Message> list) {
-        mChatList = new ArrayList<>();
-        setChoiceMode(ListView.CHOICE_MODE_NONE);
-
-        for(int i=0; i < list.size(); i++){
-            setMessage(list.get(i));
-        }
+        mTimeline = new MessageTimeline();
 
         init();
+
+        addMessages(list);
     }
 
     /**
      * Initialize list
      */
     public void init() {
-        setDividerHeight(0);
-        mMessageAdapter = new MessageAdapter(getContext(), 0, mChatList);
+        setLayoutManager(new LinearLayoutManager(getContext()));
+        mMessageAdapter = new MessageAdapter(getContext(), mTimeline.getChatList());
+        mMessageAdapter.setTimeline(mTimeline);
 
         setAdapter(mMessageAdapter);
 
-        mHandler = new Handler();
-        mRefreshTimer = new Timer(true);
-        mRefreshTimer.schedule(new TimerTask() {
+        removeOnScrollListener(mPageScrollListener);
+        addOnScrollListener(mPageScrollListener);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        getContext().registerReceiver(mTimeZoneReceiver, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        updateRefreshSchedule();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttached = false;
+        getContext().unregisterReceiver(mTimeZoneReceiver);
+        updateRefreshSchedule();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateRefreshSchedule();
+    }
+
+    /**
+     * Run the refresh only while the view is attached and its window is visible
+     */
+    private void updateRefreshSchedule() {
+        boolean shouldRefresh = mAttached && getWindowVisibility() == VISIBLE;
+        if (shouldRefresh && !mRefreshScheduled) {
+            //Texts may be out of date while the view was hidden
+            refreshVisibleTimeTexts();
+            scheduleRefresh();
+        } else if (!shouldRefresh && mRefreshScheduled) {
+            mHandler.removeCallbacks(mRefreshRunnable);
+            mRefreshScheduled = false;
+        }
+    }
+
+    /**
+     * Schedule the next refresh at the next boundary where time texts can change.
+     * Texts of messages sent within a day may be relative, so they are refreshed at every interval.
+     * Otherwise they can change only when the day changes, and an empty view is refreshed only then.
+     */
+    private void scheduleRefresh() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        long now = System.currentTimeMillis();
+        long newest = getNewestTimeInMillis();
+        long next;
+        if (newest != Long.MIN_VALUE && now - newest < TimeUtils.MILLIS_OF_DAY) {
+            //Align with the interval boundary such as the next minute
+            next = (now / mRefreshInterval + 1) * mRefreshInterval;
+        } else {
+            next = TimeUtils.getStartOfNextDay(now);
+        }
+        mHandler.postDelayed(mRefreshRunnable, next - now);
+        mRefreshScheduled = true;
+    }
+
+    /**
+     * @return created time of the newest message, or {@link Long#MIN_VALUE} if there is no message
+     */
+    private long getNewestTimeInMillis() {
+        if (mArchive != null) {
+            int count = mArchive.getMessageCount();
+            return count > 0 ? mArchive.getTimeInMillis(count - 1) : Long.MIN_VALUE;
+        }
+        List<Message> messages = mTimeline.getMessageList();
+        return messages.isEmpty() ? Long.MIN_VALUE : messages.get(messages.size() - 1).getTimeInMillis();
+    }
+
+    /**
+     * Reschedule the running refresh because the newest message may have changed
+     */
+    private void rescheduleRefresh() {
+        if (mRefreshScheduled) {
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * Rebind time and status texts of visible rows only if their texts have changed
+     */
+    private void refreshVisibleTimeTexts() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == NO_POSITION) {
+            return;
+        }
+        for (int i = first; i <= last; i++) {
+            ViewHolder holder = findViewHolderForAdapterPosition(i);
+            if (holder != null && mMessageAdapter.isTimeTextChanged(holder, i)) {
+                mMessageAdapter.notifyItemChanged(i, MessageAdapter.PAYLOAD_TIME);
+            }
+        }
+    }
+
+    /**
+     * Set date text before set message if sent at the different day
+     * @param message new message
+     */
+    public void setMessage(Message message) {
+        if (mArchive != null) {
+            int prevSize = mArchive.size();
+            int position = mArchive.add(message);
+            int insertedCount = mArchive.size() - prevSize;
+            mMessageAdapter.notifyItemRangeInserted(position - insertedCount + 1, insertedCount);
+            if (position + 1 < mArchive.size()) {
+                mMessageAdapter.notifyItemChanged(position + 1);
+            }
+            rescheduleRefresh();
+            return;
+        }
+        if (mHasNewerPages && isNewerThanLoadedMessages(message)) {
+            //Added after the newer pages
+            mPendingMessages.add(message);
+            return;
+        }
+        int prevSize = mTimeline.size();
+        int position = mTimeline.add(message);
+        rescheduleRefresh();
+        if (mDiffRunning) {
+            //Running difference calculation will pick up this change
+            return;
+        }
+        int insertedCount = mTimeline.size() - prevSize;
+        mMessageAdapter.notifyItemRangeInserted(position - insertedCount + 1, insertedCount);
+        //Next message may be grouped with the new one
+        if (position + 1 < mTimeline.size()) {
+            mMessageAdapter.notifyItemChanged(position + 1);
+        }
+    }
+
+    /**
+     * Add messages at once such as restored history.
+     * Date texts are set in the same way as {@link #setMessage(Message)}.
+     * The difference is calculated in background and dispatched to the adapter at once.
+     * @param messages new messages
+     */
+    public void addMessages(Collection<? extends Message> messages) {
+        if (mHasNewerPages) {
+            ArrayList<Message> loadedRange = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                if (isNewerThanLoadedMessages(message)) {
+                    //Added after the newer pages
+                    mPendingMessages.add(message);
+                } else {
+                    loadedRange.add(message);
+                }
+            }
+            messages = loadedRange;
+        }
+        addLoadedMessages(messages);
+    }
+
+    /**
+     * Add messages to the loaded messages without holding the newer ones
+     * @param messages new messages
+     */
+    private void addLoadedMessages(Collection<? extends Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (mArchive != null) {
+            //Rows of the archive are not compared one by one
+            mArchive.addAll(messages);
+            mMessageAdapter.notifyDataSetChanged();
+        } else if (mDiffRunning) {
+            //Running difference calculation will pick up this change
+            mTimeline.addAll(messages);
+        } else if (mTimeline.isAppendable(messages)) {
+            int prevSize = mTimeline.size();
+            mTimeline.addAll(messages);
+            mMessageAdapter.notifyItemRangeInserted(prevSize, mTimeline.size() - prevSize);
+        } else {
+            //Keep showing current items until the difference is calculated
+            mMessageAdapter.setItems(new ArrayList<>(mTimeline.getChatList()));
+            mTimeline.addAll(messages);
+            dispatchDiff();
+        }
+        rescheduleRefresh();
+    }
+
+    /**
+     * Add messages from any thread such as a network thread.
+     * Messages are sorted and their texts are formatted in background,
+     * and the UI thread only merges them and notifies the adapter.
+     * Messages must not be changed until they are added.
+     * @param messages new messages
+     */
+    public void postMessages(Collection<? extends Message> messages) {
+        mPipeline.submit(messages);
+    }
+
+    /**
+     * Add message in the next display frame.
+     * Messages queued in the same frame are added at once, so a burst of messages does not drop frames.
+     * The message is not in the list until then, so use {@link #receiveMessage(Message)} to add it now.
+     * @param message new message
+     */
+    public void enqueueMessage(Message message) {
+        mIngestionQueue.enqueue(Collections.singletonList(message));
+    }
+
+    /**
+     * Add received message now.
+     * It is followed if the end is shown, otherwise it is counted as a new message.
+     * @param message new message
+     */
+    public void receiveMessage(Message message) {
+        addReceivedMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * Add received messages and follow them or count the new ones.
+     * Each message is checked against the rows shown before they are added,
+     * so only the ones after the last shown row are counted as new while the user reads history.
+     */
+    private void addReceivedMessages(List<Message> messages) {
+        boolean follow = mAutoScroll && isShowingEnd();
+        int unread = 0;
+        if (!follow) {
+            long lastShownTime = getLastVisibleTimeInMillis();
+            for (Message message : messages) {
+                if (message.getTimeInMillis() >= lastShownTime) {
+                    unread++;
+                }
+            }
+        }
+        if (messages.size() == 1) {
+            setMessage(messages.get(0));
+        } else {
+            addMessages(messages);
+        }
+        if (follow) {
+            scrollToEnd();
+        } else if (unread > 0) {
+            //Keep the position while the user reads history
+            setUnreadCount(mUnreadCount + unread);
+        }
+    }
+
+    /**
+     * @return created time of the last visible row, or {@link Long#MIN_VALUE} if no row is shown
+     */
+    private long getLastVisibleTimeInMillis() {
+        int lastVisible = ((LinearLayoutManager) getLayoutManager()).findLastVisibleItemPosition();
+        List<Object> items = mMessageAdapter.getItems();
+        if (lastVisible == NO_POSITION || lastVisible >= items.size()) {
+            return Long.MIN_VALUE;
+        }
+        Object item = items.get(lastVisible);
+        return item instanceof Message ? ((Message) item).getTimeInMillis() : ((DateSeparator) item).getTimeInMillis();
+    }
+
+    /**
+     * Set the max number of queued messages which are added in a frame.
+     * Larger backlog than a few frames of budget is added at once.
+     * @param messagesPerFrame number of messages, at least 1
+     */
+    public void setFrameBudget(int messagesPerFrame) {
+        mIngestionQueue.setFrameBudget(messagesPerFrame);
+    }
+
+    public void setOnMessagesPostedListener(OnMessagesPostedListener listener) {
+        mOnMessagesPostedListener = listener;
+    }
+
+    /**
+     * Set whether queued messages scroll to the end.
+     * Even if enabled, the position is kept while the user reads older messages
+     * and the number of new messages is counted instead.
+     * @param autoScroll true to follow new messages
+     */
+    public void setAutoScroll(boolean autoScroll) {
+        mAutoScroll = autoScroll;
+    }
+
+    public void setOnUnreadCountChangeListener(OnUnreadCountChangeListener listener) {
+        mOnUnreadCountChangeListener = listener;
+    }
+
+    /**
+     * Return the number of messages added while the end was not shown
+     * @return number of new messages
+     */
+    public int getUnreadCount() {
+        return mUnreadCount;
+    }
+
+    private void setUnreadCount(int count) {
+        if (mUnreadCount == count) {
+            return;
+        }
+        mUnreadCount = count;
+        if (mOnUnreadCountChangeListener != null) {
+            mOnUnreadCountChangeListener.onUnreadCountChanged(count);
+        }
+    }
+
+    /**
+     * Whether the last item is shown or the view is scrolling to it
+     * @return true if new messages can be followed
+     */
+    private boolean isShowingEnd() {
+        int count = mMessageAdapter.getItemCount();
+        if (count == 0 || mScrollingToEnd || mScrollToEndPending) {
+            return true;
+        }
+        if (mHasNewerPages) {
+            return false;
+        }
+        int lastVisible = ((LinearLayoutManager) getLayoutManager()).findLastVisibleItemPosition();
+        return lastVisible == NO_POSITION || lastVisible >= count - 1 - END_DISTANCE;
+    }
+
+    /**
+     * Calculate difference between the adapter items and the timeline in background,
+     * then apply it to the adapter on the UI thread.
+     * If the timeline was changed during the calculation, the difference is calculated again.
+     */
+    private void dispatchDiff() {
+        mDiffRunning = true;
+        final List<Object> oldItems = mMessageAdapter.getItems();
+        final List<Object> newItems = new ArrayList<>(mTimeline.getChatList());
+        final int modCount = mTimeline.getModCount();
+        final int resetCount = mResetCount;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new TimelineDiffCallback(oldItems, newItems));
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        mMessageAdapter.notifyDataSetChanged();
+                        if (resetCount != mResetCount) {
+                            //Messages were discarded during the calculation
+                            return;
+                        }
+                        mMessageAdapter.setItems(newItems);
+                        result.dispatchUpdatesTo(mMessageAdapter);
+                        if (modCount != mTimeline.getModCount()) {
+                            dispatchDiff();
+                            return;
+                        }
+                        //Same contents, so the adapter can follow the timeline again
+                        mMessageAdapter.setItems(mTimeline.getChatList());
+                        mDiffRunning = false;
+                        restoreAnchor();
+                        if (mPendingJumpToEnd) {
+                            mPendingJumpToEnd = false;
+                            jumpToEnd();
+                        }
                     }
                 });
             }
-        }, 1000, mRefreshInterval);
+        });
     }
 
     /**
-     * Set date text before set message if sent at the different day
-     * @param message new message
+     * Remove message and its date text if no other message was sent at the day
+     * @param message message to remove
      */
-    public void setMessage(Message message) {
-        if (mChatList.size() == 0){
-            mChatList.add(message.getDateSeparateText());
-        } else {
-            String dateSeparateText = message.getDateSeparateText();
-            boolean dateExists = false;
-            for (Object item: mChatList) {
-                if (item instanceof String && item.equals(dateSeparateText)) {
-                    dateExists = true;
-                }
+    public void removeMessage(Message message) {
+        if (mIngestionQueue.remove(message) || mPendingMessages.remove(message)) {
+            //Not added yet
+            return;
+        }
+        if (mArchive != null) {
+            //Messages of the archive are read only
+            return;
+        }
+        int prevSize = mTimeline.size();
+        int position = mTimeline.remove(message);
+        if (position < 0 || mDiffRunning) {
+            return;
+        }
+        int removedCount = prevSize - mTimeline.size();
+        int start = position - removedCount + 1;
+        mMessageAdapter.notifyItemRangeRemoved(start, removedCount);
+        //Next message may have been grouped with the removed one
+        if (start < mTimeline.size()) {
+            mMessageAdapter.notifyItemChanged(start);
+        }
+    }
+
+    /**
+     * Change the status of the message.
+     * Only the status of the row is rebound if it is visible, otherwise nothing is laid out.
+     * @param id id of the message
+     * @param status new status
+     * @return true if the message was found
+     */
+    public boolean updateStatus(long id, int status) {
+        Message message = mTimeline.getMessage(id);
+        if (message == null) {
+            //The status is shown when the queued message is added
+            message = mIngestionQueue.find(id);
+            if (message == null) {
+                message = findPendingMessage(id);
+            }
+            if (message != null) {
+                message.setStatus(status);
             }
+            return message != null;
+        }
+        //Shown instead of the watermark status
+        mTimeline.setStatus(message, status);
+        int position = mDiffRunning ? mMessageAdapter.getItems().indexOf(message) : mTimeline.indexOf(message);
+        //Rows off screen show the new status when they are attached again
+        if (position < 0) {
+            return true;
+        }
+        ViewHolder holder = findViewHolderForAdapterPosition(position);
+        if (holder != null && mMessageAdapter.isStatusChanged(holder, position)) {
+            mMessageAdapter.notifyItemChanged(position, MessageAdapter.PAYLOAD_STATUS);
+        }
+        return true;
+    }
 
-            if (!dateExists) {
-                //Set date label because of different day
-                mChatList.add(dateSeparateText);
+    /**
+     * Change the status of all right messages up to the message, such as a read receipt.
+     * The status of each message is not changed and only visible rows whose status has changed are rebound.
+     * Messages created at the same time as the message are in the range only if they are before it.
+     * A receipt older than the current one is ignored, so shown statuses do not go back,
+     * and later {@link #updateStatus(long, int)} of a message in the range changes the shown status.
+     * @param id id of the last message of the range
+     * @param status new status
+     * @return true if the message was found
+     */
+    public boolean updateStatusUntil(long id, int status) {
+        Message message = mTimeline.getMessage(id);
+        if (message == null) {
+            return false;
+        }
+        if (!mTimeline.setStatusUntil(message, status)) {
+            //No shown status has changed
+            return true;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == NO_POSITION) {
+            return true;
+        }
+        for (int i = first; i <= last; i++) {
+            ViewHolder holder = findViewHolderForAdapterPosition(i);
+            if (holder != null && mMessageAdapter.isStatusChanged(holder, i)) {
+                mMessageAdapter.notifyItemChanged(i, MessageAdapter.PAYLOAD_STATUS);
             }
         }
+        return true;
+    }
 
-        MessageDateComparator dateComparator = new MessageDateComparator();
-        mChatList.add(message);
-        mMessageList.add(message);
-        Collections.sort(mChatList, dateComparator);
-        Collections.sort(mMessageList, dateComparator);
-        mMessageAdapter.notifyDataSetChanged();
+    /**
+     * Show the archive instead of the current messages.
+     * Messages of the archive are created only for the visible rows,
+     * so set a long history to the archive before it is shown.
+     * New messages are added to the archive and messages can not be removed.
+     * @param archive archive to show, or null to go back to an empty timeline
+     */
+    public void setArchive(MessageArchive archive) {
+        mPagingSource = null;
+        mPendingMessages.clear();
+        clearMessages();
+        mArchive = archive;
+        if (archive != null) {
+            mMessageAdapter.setItems(archive.getChatList());
+            mMessageAdapter.notifyDataSetChanged();
+        }
+        rescheduleRefresh();
+        jumpToEnd();
+    }
+
+    /**
+     * Load messages page by page from the source instead of setting all of them.
+     * Current messages are replaced with the latest page.
+     * @param source source of history pages
+     * @param pageSize number of messages in a page
+     * @param maxMessageCount max number of messages kept in memory, at least twice of the page size
+     */
+    public void setPagingSource(IMessagePagingSource source, int pageSize, int maxMessageCount) {
+        if (maxMessageCount < pageSize * 2) {
+            throw new IllegalArgumentException("maxMessageCount must be at least twice of pageSize");
+        }
+        mPagingSource = source;
+        mPageSize = pageSize;
+        mMaxMessageCount = maxMessageCount;
+        mPendingMessages.clear();
+        reloadLatestPage();
+    }
+
+    public void setOnPageLoadListener(OnPageLoadListener listener) {
+        mOnPageLoadListener = listener;
+    }
+
+    /**
+     * Discard loaded messages and load the latest page.
+     * Live messages which were newer than the loaded messages are added after the page.
+     */
+    public void reloadLatestPage() {
+        if (mPagingSource == null) {
+            return;
+        }
+        clearMessages();
+        mLoadingOlderPage = true;
+        final int resetCount = mResetCount;
+        mPagingSource.loadBefore(null, mPageSize, new IMessagePagingSource.LoadCallback() {
+            @Override
+            public void onLoaded(final List<? extends Message> messages) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (resetCount != mResetCount) {
+                            return;
+                        }
+                        mLoadingOlderPage = false;
+                        mHasOlderPages = messages.size() >= mPageSize;
+                        addLoadedMessages(messages);
+                        addPendingMessages();
+                        jumpToEnd();
+                        notifyPageLoaded();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the page before the oldest loaded message
+     * @return true if loading was started, false if there is no older page or it is being loaded
+     */
+    public boolean loadOlderPage() {
+        List<Message> messages = mTimeline.getMessageList();
+        if (mPagingSource == null || !mHasOlderPages || mLoadingOlderPage || messages.isEmpty()) {
+            return false;
+        }
+        mLoadingOlderPage = true;
+        final int resetCount = mResetCount;
+        mPagingSource.loadBefore(messages.get(0), mPageSize, new IMessagePagingSource.LoadCallback() {
+            @Override
+            public void onLoaded(final List<? extends Message> page) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (resetCount != mResetCount) {
+                            return;
+                        }
+                        mLoadingOlderPage = false;
+                        mHasOlderPages = page.size() >= mPageSize;
+                        captureAnchor();
+                        addLoadedMessages(page);
+                        //Drop newest messages which are far from the viewport
+                        int excess = mTimeline.getMessageList().size() - mMaxMessageCount;
+                        if (excess > 0) {
+                            removeNewestMessages(excess);
+                            mHasNewerPages = true;
+                        }
+                        if (!mDiffRunning) {
+                            restoreAnchor();
+                        }
+                        notifyPageLoaded();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Load the page after the newest loaded message, which was dropped to bound the memory
+     * @return true if loading was started, false if there is no newer page or it is being loaded
+     */
+    public boolean loadNewerPage() {
+        List<Message> messages = mTimeline.getMessageList();
+        if (mPagingSource == null || !mHasNewerPages || mLoadingNewerPage || messages.isEmpty()) {
+            return false;
+        }
+        mLoadingNewerPage = true;
+        final int resetCount = mResetCount;
+        mPagingSource.loadAfter(messages.get(messages.size() - 1), mPageSize, new IMessagePagingSource.LoadCallback() {
+            @Override
+            public void onLoaded(final List<? extends Message> page) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (resetCount != mResetCount) {
+                            return;
+                        }
+                        mLoadingNewerPage = false;
+                        mHasNewerPages = page.size() >= mPageSize;
+                        captureAnchor();
+                        addLoadedMessages(page);
+                        addPendingMessages();
+                        //Drop oldest messages which are far from the viewport
+                        int excess = mTimeline.getMessageList().size() - mMaxMessageCount;
+                        if (excess > 0) {
+                            removeOldestMessages(excess);
+                            mHasOlderPages = true;
+                        }
+                        if (!mDiffRunning) {
+                            restoreAnchor();
+                        }
+                        notifyPageLoaded();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Remove the oldest loaded messages at once
+     * @param count number of messages to remove
+     */
+    private void removeOldestMessages(int count) {
+        int removedCount = mTimeline.removeOldest(count);
+        if (mDiffRunning) {
+            return;
+        }
+        mMessageAdapter.notifyItemRangeRemoved(0, removedCount);
+        //Top item may be the date separator of the day which continues
+        if (mTimeline.size() > 0) {
+            mMessageAdapter.notifyItemChanged(0);
+        }
+    }
+
+    /**
+     * Remove the newest loaded messages at once
+     * @param count number of messages to remove
+     */
+    private void removeNewestMessages(int count) {
+        int prevSize = mTimeline.size();
+        int start = mTimeline.removeNewest(count);
+        if (mDiffRunning) {
+            return;
+        }
+        mMessageAdapter.notifyItemRangeRemoved(start, prevSize - start);
+        //Last message may have been grouped with the removed one
+        if (start > 0) {
+            mMessageAdapter.notifyItemChanged(start - 1);
+        }
+    }
+
+    private void notifyPageLoaded() {
+        if (mOnPageLoadListener != null) {
+            mOnPageLoadListener.onPageLoaded();
+        }
+    }
 
+    /**
+     * Load the next page when the visible rows come close to the edge of the loaded messages
+     * @param dy scrolled amount, negative when scrolled to the top
+     */
+    private void loadPageNearEdge(int dy) {
+        if (mPagingSource == null) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+            loadOlderPage();
+        } else if (dy > 0
+                && layoutManager.findLastVisibleItemPosition() >= mMessageAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+            loadNewerPage();
+        }
     }
 
+    /**
+     * Add the pending messages which are in the range of the loaded messages now.
+     * Messages which the source has returned are not added again.
+     */
+    private void addPendingMessages() {
+        if (mPendingMessages.isEmpty()) {
+            return;
+        }
+        ArrayList<Message> messages = new ArrayList<>(mPendingMessages.size());
+        Iterator<Message> iterator = mPendingMessages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (mHasNewerPages && isNewerThanLoadedMessages(message)) {
+                continue;
+            }
+            iterator.remove();
+            if (mTimeline.getMessage(message.getId()) == null) {
+                messages.add(message);
+            }
+        }
+        addLoadedMessages(messages);
+    }
+
+    private Message findPendingMessage(long id) {
+        for (Message message : mPendingMessages) {
+            if (message.getId() == id) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private boolean isNewerThanLoadedMessages(Message message) {
+        List<Message> messages = mTimeline.getMessageList();
+        return messages.isEmpty()
+                || messages.get(messages.size() - 1).getTimeInMillis() <= message.getTimeInMillis();
+    }
+
+    /**
+     * Remember the first visible message and its offset
+     */
+    private void captureAnchor() {
+        if (mAnchorMessage != null) {
+            //Keep the anchor which is not restored yet
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        if (first == NO_POSITION) {
+            return;
+        }
+        List<Object> items = mMessageAdapter.getItems();
+        for (int i = first; i < items.size(); i++) {
+            if (items.get(i) instanceof Message) {
+                View view = layoutManager.findViewByPosition(i);
+                if (view != null) {
+                    mAnchorMessage = (Message) items.get(i);
+                    mAnchorOffset = view.getTop() - getPaddingTop();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move the anchor message back to the place where it was captured
+     */
+    private void restoreAnchor() {
+        if (mAnchorMessage == null) {
+            return;
+        }
+        int position = mTimeline.indexOf(mAnchorMessage);
+        if (position >= 0) {
+            ((LinearLayoutManager) getLayoutManager()).scrollToPositionWithOffset(position, mAnchorOffset);
+        }
+        mAnchorMessage = null;
+    }
+
+    /**
+     * Discard all messages and running calculation
+     */
+    private void clearMessages() {
+        mResetCount++;
+        mArchive = null;
+        mTimeline.clear();
+        mMessageAdapter.setItems(mTimeline.getChatList());
+        mMessageAdapter.notifyDataSetChanged();
+        mDiffRunning = false;
+        mPendingJumpToEnd = false;
+        mAnchorMessage = null;
+        mHasOlderPages = false;
+        mHasNewerPages = false;
+        mLoadingOlderPage = false;
+        mLoadingNewerPage = false;
+        mScrollingToEnd = false;
+        setUnreadCount(0);
+    }
+
+    /**
+     * Compare items by identity.
+     * Message row also depends on the previous item because of the sender grouping.
+     */
+    private static class TimelineDiffCallback extends DiffUtil.Callback {
+        private final List<Object> mOldItems;
+        private final List<Object> mNewItems;
+
+        TimelineDiffCallback(List<Object> oldItems, List<Object> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition) == mNewItems.get(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Object oldPrev = oldItemPosition > 0 ? mOldItems.get(oldItemPosition - 1) : null;
+            Object newPrev = newItemPosition > 0 ? mNewItems.get(newItemPosition - 1) : null;
+            return oldPrev == newPrev;
+        }
+    }
 
     public void setOnKeyboardAppearListener(OnKeyboardAppearListener listener) {
         mOnKeyboardAppearListener = listener;
@@ -142,7 +1106,7 @@ public class MessageView extends ListView implements View.OnFocusChangeListener{
     protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
         super.onSizeChanged(width, height, oldWidth, oldHeight);
 
-        // if ListView became smaller
+        // if MessageView became smaller
         if (mOnKeyboardAppearListener != null
                 && height < oldHeight) {
             mOnKeyboardAppearListener.onKeyboardAppeared(true);
@@ -153,12 +1117,54 @@ public class MessageView extends ListView implements View.OnFocusChangeListener{
     public void onFocusChange(View view, boolean hasFocus) {
         if (hasFocus) {
             //Scroll to end
+            scrollToLoadedEnd();
+        }
+    }
+
+    /**
+     * Scroll to the last item only if it is loaded.
+     * Unlike {@link #scrollToEnd()}, the latest page is not reloaded when the user reads older pages,
+     * such as when the input gets focus or the keyboard appears.
+     */
+    public void scrollToLoadedEnd() {
+        if (!mHasNewerPages) {
             scrollToEnd();
         }
     }
 
+    /**
+     * Scroll to the last item in the next frame.
+     * Requests in the same frame are coalesced into one scroll,
+     * and the view jumps without animation if the end is more than a screen away.
+     */
     public void scrollToEnd() {
-        smoothScrollToPosition(getCount() - 1);
+        if (mHasNewerPages) {
+            //The end is not loaded
+            reloadLatestPage();
+            return;
+        }
+        setUnreadCount(0);
+        if (!mScrollToEndPending) {
+            mScrollToEndPending = true;
+            ViewCompat.postOnAnimation(this, mScrollToEndRunnable);
+        }
+    }
+
+    /**
+     * Move to the last item without scroll animation
+     */
+    public void jumpToEnd() {
+        if (mHasNewerPages) {
+            //The end is not loaded
+            reloadLatestPage();
+            return;
+        }
+        setUnreadCount(0);
+        if (mDiffRunning) {
+            mPendingJumpToEnd = true;
+        } else if (mMessageAdapter.getItemCount() > 0) {
+            scrollToPosition(mMessageAdapter.getItemCount() - 1);
+        }
     }
 
     public void setLeftBubbleColor(int color) {
@@ -218,17 +1224,22 @@ public class MessageView extends ListView implements View.OnFocusChangeListener{
     }
 
     /**
-     * Return last object (right message or left message or date text)
+     * Return last object (right message or left message or {@link com.github.bassaer.chatmessageview.models.DateSeparator})
      * @return last object of chat
      */
     public Object getLastChatObject() {
-        if (mChatList.size() == 0) {
-            return null;
+        if (mArchive != null) {
+            return mArchive.size() > 0 ? mArchive.getChatObject(mArchive.size() - 1) : null;
         }
-        return mChatList.get(mChatList.size() - 1);
+        return mTimeline.getLastChatObject();
     }
 
+    /**
+     * Set the refresh interval of time texts of messages sent within a day
+     * @param refreshInterval interval in milliseconds
+     */
     public void setRefreshInterval(long refreshInterval) {
         mRefreshInterval = refreshInterval;
+        rescheduleRefresh();
     }
 }
@@ -1,55 +1,119 @@
 package com.github.bassaer.chatmessageview.views;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
-import android.graphics.Path;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.Build;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.util.AttributeSet;
 import android.widget.ImageView;
 
 import com.github.bassaer.chatmessageview.R;
 
 /**
- * Round Image view for picture on message
+ * Round Image view for picture on message.
+ * The bitmap is drawn through a shader into a round rect, which works with hardware acceleration on all API levels.
+ * The shader is rebuilt only when the picture or the size changes, so drawing allocates nothing.
  * Created by nakayama on 2017/03/08.
  */
 public class RoundImageView extends ImageView {
-    private Path mClipPath;
+    private final RectF mRect = new RectF();
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Matrix mShaderMatrix = new Matrix();
+    private float mRadius;
+    /**
+     * Bitmap which the shader draws
+     */
+    private Bitmap mShaderBitmap;
+    private boolean mShaderDirty = true;
 
     public RoundImageView(Context context) {
         super(context);
-        initClipPath();
+        init();
     }
 
     public RoundImageView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        initClipPath();
+        init();
     }
 
     public RoundImageView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        initClipPath();
+        init();
     }
 
-    private void initClipPath() {
+    private void init() {
+        mRadius = getResources().getDimensionPixelSize(R.dimen.view_radius_normal);
+    }
 
-        // Below Jelly Bean, clipPath on canvas would not work because lack of hardware acceleration
-        // support. Hence, we should explicitly say to use software acceleration.
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2
-                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            setLayerType(LAYER_TYPE_SOFTWARE, null);
-        }
-        mClipPath = new Path();
-        RectF rect = new RectF(0, 0, getWidth(), getHeight());
-        float radius = getResources().getDimensionPixelSize(R.dimen.view_radius_normal);
-        mClipPath.addRoundRect(rect, radius, radius, Path.Direction.CW);
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        mRect.set(getPaddingLeft(), getPaddingTop(), width - getPaddingRight(), height - getPaddingBottom());
+        mShaderDirty = true;
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        mShaderDirty = true;
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        super.setImageResource(resId);
+        mShaderDirty = true;
+    }
+
+    @Override
+    public void setImageURI(Uri uri) {
+        super.setImageURI(uri);
+        mShaderDirty = true;
+    }
+
+    @Override
+    public void setScaleType(ScaleType scaleType) {
+        super.setScaleType(scaleType);
+        mShaderDirty = true;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        initClipPath();
-        canvas.clipPath(mClipPath);
-        super.onDraw(canvas);
+        Drawable drawable = getDrawable();
+        if (!(drawable instanceof BitmapDrawable) || ((BitmapDrawable) drawable).getBitmap() == null) {
+            //Nothing to round
+            super.onDraw(canvas);
+            return;
+        }
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (mShaderDirty || bitmap != mShaderBitmap) {
+            updateShader(bitmap, drawable.getBounds());
+        }
+        canvas.drawRoundRect(mRect, mRadius, mRadius, mPaint);
+    }
+
+    /**
+     * Map the bitmap to the view in the same way as the image matrix of ImageView
+     * @param bitmap picture to draw
+     * @param bounds bounds of the drawable
+     */
+    private void updateShader(Bitmap bitmap, Rect bounds) {
+        if (bitmap != mShaderBitmap) {
+            mPaint.setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            mShaderBitmap = bitmap;
+        }
+        mShaderMatrix.set(getImageMatrix());
+        mShaderMatrix.preTranslate(bounds.left, bounds.top);
+        mShaderMatrix.preScale((float) bounds.width() / bitmap.getWidth(), (float) bounds.height() / bitmap.getHeight());
+        mShaderMatrix.postTranslate(getPaddingLeft(), getPaddingTop());
+        mPaint.getShader().setLocalMatrix(mShaderMatrix);
+        mShaderDirty = false;
     }
 }
@@ -2,52 +2,80 @@ package com.github.bassaer.chatmessageview.views.adapters;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
-import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.drawable.DrawableCompat;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.github.bassaer.chatmessageview.R;
+import com.github.bassaer.chatmessageview.models.DateSeparator;
 import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.MessageTimeline;
+import com.github.bassaer.chatmessageview.models.PictureSource;
 import com.github.bassaer.chatmessageview.models.User;
+import com.github.bassaer.chatmessageview.utils.AvatarCache;
+import com.github.bassaer.chatmessageview.utils.PictureLoader;
 import com.github.bassaer.chatmessageview.views.RoundImageView;
 
-import java.util.ArrayList;
-
-import de.hdodenhof.circleimageview.CircleImageView;
+import java.util.List;
+import java.util.concurrent.Future;
 
 
 /**
  * Custom list adapter for the chat timeline
  * Created by nakayama on 2016/08/08.
  */
-public class MessageAdapter extends ArrayAdapter<Object> {
+public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    /**
+     * Payload to rebind only the time and status texts
+     */
+    public static final Object PAYLOAD_TIME = new Object();
+
+    /**
+     * Payload to rebind only the status icon or text
+     */
+    public static final Object PAYLOAD_STATUS = new Object();
 
     private LayoutInflater mLayoutInflater;
-    private ArrayList<Object> mObjects;
-    private ArrayList<Object> mViewTypes = new ArrayList<>();
+    private List<Object> mObjects;
+    /**
+     * Timeline which decides the status of messages, or null to show their own status
+     */
+    private MessageTimeline mTimeline;
+
+    /**
+     * View types.
+     * Each type has its own layout, so recycled view can be bound without changing the layout.
+     */
+    private static final int VIEW_TYPE_DATE_SEPARATOR = 0;
+    private static final int VIEW_TYPE_LEFT_TEXT = 1;
+    private static final int VIEW_TYPE_RIGHT_TEXT = 2;
+    private static final int VIEW_TYPE_LEFT_PICTURE = 3;
+    private static final int VIEW_TYPE_RIGHT_PICTURE = 4;
 
     private Message.OnIconClickListener mOnIconClickListener;
     private Message.OnBubbleClickListener mOnBubbleClickListener;
     private Message.OnIconLongClickListener mOnIconLongClickListener;
     private Message.OnBubbleLongClickListener mOnBubbleLongClickListener;
 
-    private int mUsernameTextColor = ContextCompat.getColor(getContext(), R.color.blueGray500);
-    private int mSendTimeTextColor = ContextCompat.getColor(getContext(), R.color.blueGray500);
-    private int mDateSeparatorColor = ContextCompat.getColor(getContext(), R.color.blueGray500);
+    private int mUsernameTextColor;
+    private int mSendTimeTextColor;
+    private int mDateSeparatorColor;
     private int mRightMessageTextColor = Color.WHITE;
     private int mLeftMessageTextColor = Color.BLACK;
     private int mLeftBubbleColor;
     private int mRightBubbleColor;
-    private int mStatusColor = ContextCompat.getColor(getContext(), R.color.blueGray500);
+    private int mStatusColor;
     /**
      * Default message item margin top
      */
@@ -57,289 +85,376 @@ public class MessageAdapter extends ArrayAdapter<Object> {
      */
     private int mMessageBottomMargin = 5;
 
-    public MessageAdapter(Context context, int resource, ArrayList<Object> objects) {
-        super(context, resource, objects);
+    private AvatarCache mAvatarCache = AvatarCache.getInstance();
+    /**
+     * Icon size in pixels
+     */
+    private int mIconSize;
+
+    private PictureLoader mPictureLoader;
+    /**
+     * Picture size in the layout, used before the bubble is laid out
+     */
+    private int mDefaultPictureSize;
+
+    public MessageAdapter(Context context, List<Object> objects) {
         mLayoutInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         mObjects = objects;
-        mViewTypes.add(String.class);
-        mViewTypes.add(Message.class);
+        mUsernameTextColor = ContextCompat.getColor(context, R.color.blueGray500);
+        mSendTimeTextColor = mUsernameTextColor;
+        mDateSeparatorColor = mUsernameTextColor;
+        mStatusColor = mUsernameTextColor;
         mLeftBubbleColor = ContextCompat.getColor(context, R.color.default_left_bubble_color);
         mRightBubbleColor = ContextCompat.getColor(context, R.color.default_right_bubble_color);
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.icon_normal);
+        mPictureLoader = PictureLoader.getInstance(context);
+        mDefaultPictureSize = context.getResources().getDimensionPixelSize(R.dimen.width_normal);
     }
 
     @Override
     public int getItemViewType(int position) {
         Object item = mObjects.get(position);
-        return mViewTypes.indexOf(item);
+        if (item instanceof DateSeparator) {
+            return VIEW_TYPE_DATE_SEPARATOR;
+        }
+        Message message = (Message) item;
+        boolean isPicture = message.getType() == Message.Type.PICTURE;
+        if (message.isRightMessage()) {
+            return isPicture ? VIEW_TYPE_RIGHT_PICTURE : VIEW_TYPE_RIGHT_TEXT;
+        }
+        return isPicture ? VIEW_TYPE_LEFT_PICTURE : VIEW_TYPE_LEFT_TEXT;
     }
 
-    @Override
-    public int getViewTypeCount() {
-        return mViewTypes.size();
+    /**
+     * Replace items which the adapter shows.
+     * Caller must notify the changes.
+     * @param objects items in the order of the timeline
+     */
+    public void setItems(List<Object> objects) {
+        mObjects = objects;
     }
 
-    @NonNull
-    @SuppressWarnings("deprecation")
-    @Override
-    public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-        Object item = getItem(position);
-
-        if (item instanceof String) {
-            // item is Date label
-            DateViewHolder dateViewHolder;
-            String dateText = (String) item;
-            if (convertView == null) {
-                convertView = mLayoutInflater.inflate(R.layout.date_cell, null);
-                dateViewHolder = new DateViewHolder();
-                dateViewHolder.dateSeparatorText = (TextView) convertView.findViewById(R.id.date_separate_text);
-                convertView.setTag(dateViewHolder);
-            } else {
-                dateViewHolder = (DateViewHolder) convertView.getTag();
-            }
-            dateViewHolder.dateSeparatorText.setText(dateText);
-            dateViewHolder.dateSeparatorText.setTextColor(mDateSeparatorColor);
-        } else {
-            //Item is a message
-            MessageViewHolder holder;
-            final Message message = (Message) item;
-            if (position > 0) {
-                Object prevItem = getItem(position - 1);
-                if (prevItem instanceof Message) {
-                    final Message prevMessage = (Message) prevItem;
-                    if (prevMessage.getUser().getId() == message.getUser().getId()) {
-                        //If send same person, hide username and icon.
-                        message.setIconVisibility(false);
-                        message.setUsernameVisibility(false);
-                    }
-                }
-            }
+    public List<Object> getItems() {
+        return mObjects;
+    }
 
-            User user = message.getUser();
+    /**
+     * Set the timeline whose status watermark is applied to the messages
+     * @param timeline timeline of the messages, or null
+     */
+    public void setTimeline(MessageTimeline timeline) {
+        mTimeline = timeline;
+    }
 
-            //Bubble color
-            Drawable bubbleDrawable;
-            Drawable wrappedDrawable;
-            ColorStateList colorStateList;
-
-            if (message.isRightMessage()) {
-                //Right message
-                if (convertView == null) {
-                    convertView = mLayoutInflater.inflate(R.layout.message_view_right, null);
-                    holder = new MessageViewHolder();
-                    holder.iconContainer = (FrameLayout) convertView.findViewById(R.id.user_icon_container);
-                    holder.mainMessageContainer = (FrameLayout) convertView.findViewById(R.id.main_message_container);
-                    holder.timeText = (TextView) convertView.findViewById(R.id.time_display_text);
-                    holder.usernameContainer = (FrameLayout) convertView.findViewById(R.id.message_user_name_container);
-                    holder.statusContainer = (FrameLayout) convertView.findViewById(R.id.message_status_container);
-                    convertView.setTag(holder);
-                } else {
-                    holder = (MessageViewHolder) convertView.getTag();
-                }
+    private int getStatus(Message message) {
+        return mTimeline != null ? mTimeline.getStatus(message) : message.getStatus();
+    }
 
-                //Remove view in each container
-                holder.iconContainer.removeAllViews();
-                holder.usernameContainer.removeAllViews();
-                holder.statusContainer.removeAllViews();
-                holder.mainMessageContainer.removeAllViews();
-
-                if (user.getName() != null && message.getUsernameVisibility()) {
-                    View usernameView = mLayoutInflater.inflate(R.layout.user_name_right, holder.usernameContainer);
-                    holder.username = (TextView) usernameView.findViewById(R.id.message_user_name);
-                    holder.username.setText(user.getName());
-                    holder.username.setTextColor(mUsernameTextColor);
-                }
+    private String getStatusText(Message message) {
+        return message.getStatusTextFormatter().getStatusText(getStatus(message), message.isRightMessage());
+    }
 
-                // if false, icon is not shown.
-                if (!message.isIconHided()) {
-                    View iconView = mLayoutInflater.inflate(R.layout.user_icon_right, holder.iconContainer);
-                    holder.icon = (CircleImageView) iconView.findViewById(R.id.user_icon);
-                    if (message.getIconVisibility()) {
-                        //if false, set default icon.
-                        if (user.getIcon() != null) {
-                            holder.icon.setImageBitmap(user.getIcon());
-                        }
-
-                    } else {
-                        //Show nothing
-                        holder.icon.setVisibility(View.INVISIBLE);
-                    }
-                }
+    @Override
+    public int getItemCount() {
+        return mObjects.size();
+    }
 
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_DATE_SEPARATOR) {
+            View view = mLayoutInflater.inflate(R.layout.date_cell, parent, false);
+            return new DateViewHolder(view);
+        }
+        return createMessageViewHolder(parent, viewType);
+    }
 
-                //Show message status
-                if (message.getMessageStatusType() == Message.MESSAGE_STATUS_ICON || message.getMessageStatusType() == Message.MESSAGE_STATUS_ICON_RIGHT_ONLY) {
-                    //Show message status icon
-                    View statusIcon = mLayoutInflater.inflate(R.layout.message_status_icon, holder.statusContainer);
-                    holder.statusIcon = (ImageView)statusIcon.findViewById(R.id.status_icon_image_view);
-                    holder.statusIcon.setImageDrawable(message.getStatusIcon());
-                    setColorDrawable(mStatusColor, holder.statusIcon.getDrawable());
-                } else if (message.getMessageStatusType() == Message.MESSAGE_STATUS_TEXT || message.getMessageStatusType() == Message.MESSAGE_STATUS_TEXT_RIGHT_ONLY) {
-                    //Show message status text
-                    View statusText = mLayoutInflater.inflate(R.layout.message_status_text, holder.statusContainer);
-                    holder.statusText = (TextView)statusText.findViewById(R.id.status_text_view);
-                    holder.statusText.setText(message.getStatusText());
-                    holder.statusText.setTextColor(mStatusColor);
-                }
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int position, List<Object> payloads) {
+        if (payloads.isEmpty() || !(viewHolder instanceof MessageViewHolder)) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TIME && payload != PAYLOAD_STATUS) {
+                //Unknown change, so bind everything
+                onBindViewHolder(viewHolder, position);
+                return;
+            }
+        }
+        Message message = (Message) mObjects.get(position);
+        MessageViewHolder holder = (MessageViewHolder) viewHolder;
+        if (payloads.contains(PAYLOAD_STATUS)) {
+            bindStatus(holder, message);
+        }
+        if (payloads.contains(PAYLOAD_TIME)) {
+            //Only relative time texts may have changed
+            holder.timeText.setText(message.getTimeText());
+            if (holder.statusText.getVisibility() == View.VISIBLE) {
+                holder.statusText.setText(getStatusText(message));
+            }
+        }
+    }
 
-                //Set text or picture on message bubble
-                if (message.getType() == Message.Type.PICTURE) {
-                    //Set picture
-                    View pictureBubble = mLayoutInflater.inflate(R.layout.message_picture_right, holder.mainMessageContainer);
-                    holder.messagePicture = (RoundImageView) pictureBubble.findViewById(R.id.message_picture);
-                    holder.messagePicture.setImageBitmap(message.getPicture());
-                } else {
-                    //Set text
-                    View textBubble = mLayoutInflater.inflate(R.layout.message_text_right, holder.mainMessageContainer);
-                    holder.messageText = (TextView) textBubble.findViewById(R.id.message_text);
-                    holder.messageText.setText(message.getMessageText());
-                    //Set bubble color
-                    setColorDrawable(mRightBubbleColor, holder.messageText.getBackground());
-                    //Set message text color
-                    holder.messageText.setTextColor(mRightMessageTextColor);
-                }
+    /**
+     * Show status icon or text of the message
+     * @param holder row of the message
+     * @param message message of the row
+     */
+    private void bindStatus(MessageViewHolder holder, Message message) {
+        boolean isRight = message.isRightMessage();
+        int statusType = message.getMessageStatusType();
+        holder.statusIcon.setVisibility(View.GONE);
+        holder.statusText.setVisibility(View.GONE);
+        if (statusType == Message.MESSAGE_STATUS_ICON
+                || statusType == (isRight ? Message.MESSAGE_STATUS_ICON_RIGHT_ONLY : Message.MESSAGE_STATUS_ICON_LEFT_ONLY)) {
+            //Show message status icon
+            holder.statusIcon.setVisibility(View.VISIBLE);
+            holder.statusIcon.setImageDrawable(
+                    message.getStatusIconFormatter().getStatusIcon(getStatus(message), isRight));
+            setColorDrawable(mStatusColor, holder.statusIcon.getDrawable());
+        } else if (statusType == Message.MESSAGE_STATUS_TEXT
+                || statusType == (isRight ? Message.MESSAGE_STATUS_TEXT_RIGHT_ONLY : Message.MESSAGE_STATUS_TEXT_LEFT_ONLY)) {
+            //Show message status text
+            holder.statusText.setVisibility(View.VISIBLE);
+            holder.statusText.setText(getStatusText(message));
+            holder.statusText.setTextColor(mStatusColor);
+        }
+        holder.boundStatus = getStatus(message);
+    }
 
-                holder.timeText.setText(message.getTimeText());
+    /**
+     * Whether the status on the row is different from the current status of the message
+     * @param viewHolder bound row
+     * @param position position of the row
+     * @return true if the row should be rebound with {@link #PAYLOAD_STATUS}
+     */
+    public boolean isStatusChanged(RecyclerView.ViewHolder viewHolder, int position) {
+        if (!(viewHolder instanceof MessageViewHolder)) {
+            return false;
+        }
+        Object item = mObjects.get(position);
+        return item instanceof Message && getStatus((Message) item) != ((MessageViewHolder) viewHolder).boundStatus;
+    }
 
-                holder.timeText.setTextColor(mSendTimeTextColor);
+    /**
+     * Row kept in the cache of RecyclerView is attached again without binding,
+     * so the status which was changed while the row was off screen is shown here.
+     */
+    @Override
+    public void onViewAttachedToWindow(RecyclerView.ViewHolder viewHolder) {
+        int position = viewHolder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION || position >= mObjects.size()) {
+            return;
+        }
+        if (isStatusChanged(viewHolder, position)) {
+            bindStatus((MessageViewHolder) viewHolder, (Message) mObjects.get(position));
+        }
+    }
 
-                //Set Padding
-                convertView.setPadding(0, mMessageTopMargin, 0, mMessageBottomMargin);
+    /**
+     * Whether the time or status text on the row is different from the current text of the message
+     * @param viewHolder bound row
+     * @param position position of the row
+     * @return true if the row should be rebound with {@link #PAYLOAD_TIME}
+     */
+    public boolean isTimeTextChanged(RecyclerView.ViewHolder viewHolder, int position) {
+        if (!(viewHolder instanceof MessageViewHolder)) {
+            return false;
+        }
+        Message message = (Message) mObjects.get(position);
+        MessageViewHolder holder = (MessageViewHolder) viewHolder;
+        if (!TextUtils.equals(holder.timeText.getText(), message.getTimeText())) {
+            return true;
+        }
+        return holder.statusText.getVisibility() == View.VISIBLE
+                && !TextUtils.equals(holder.statusText.getText(), getStatusText(message));
+    }
 
-            } else {
-                //Left message
-                if (convertView == null) {
-                    convertView = mLayoutInflater.inflate(R.layout.message_view_left, null);
-                    holder = new MessageViewHolder();
-                    holder.iconContainer = (FrameLayout) convertView.findViewById(R.id.user_icon_container);
-                    holder.mainMessageContainer = (FrameLayout) convertView.findViewById(R.id.main_message_container);
-                    holder.timeText = (TextView) convertView.findViewById(R.id.time_display_text);
-                    holder.usernameContainer = (FrameLayout) convertView.findViewById(R.id.message_user_name_container);
-                    holder.statusContainer = (FrameLayout) convertView.findViewById(R.id.message_status_container);
-                    convertView.setTag(holder);
-                } else {
-                    holder = (MessageViewHolder) convertView.getTag();
-                }
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int position) {
+        Object item = mObjects.get(position);
 
+        if (item instanceof DateSeparator) {
+            // item is Date label
+            DateViewHolder dateViewHolder = (DateViewHolder) viewHolder;
+            dateViewHolder.dateSeparatorText.setText(((DateSeparator) item).getText());
+            dateViewHolder.dateSeparatorText.setTextColor(mDateSeparatorColor);
+        } else {
+            //Item is a message
+            MessageViewHolder holder = (MessageViewHolder) viewHolder;
+            Message message = (Message) item;
+            User user = message.getUser();
+            boolean isRight = message.isRightMessage();
 
-                //Remove view in each container
-                holder.iconContainer.removeAllViews();
-                holder.usernameContainer.removeAllViews();
-                holder.statusContainer.removeAllViews();
-                holder.mainMessageContainer.removeAllViews();
+            //Username and icon are shown only on the first message of the same sender
+            boolean isContinued = message.isContinuedFromPrevious();
 
+            if (user.getName() != null && message.getUsernameVisibility() && !isContinued) {
+                holder.username.setVisibility(View.VISIBLE);
+                holder.username.setText(user.getName());
+                holder.username.setTextColor(mUsernameTextColor);
+            } else {
+                holder.username.setVisibility(View.GONE);
+            }
 
-                if (user.getName() != null && message.getUsernameVisibility()) {
-                    View usernameView = mLayoutInflater.inflate(R.layout.user_name_left, holder.usernameContainer);
-                    holder.username = (TextView) usernameView.findViewById(R.id.message_user_name);
-                    holder.username.setText(user.getName());
-                    holder.username.setTextColor(mUsernameTextColor);
+            // if hided, there is no icon space.
+            if (message.isIconHided()) {
+                holder.icon.setVisibility(View.GONE);
+            } else if (message.getIconVisibility() && !isContinued) {
+                holder.icon.setVisibility(View.VISIBLE);
+                //Shared avatar which is already cropped, or initials if the user has no icon
+                Bitmap avatar = mAvatarCache.getAvatar(user, mIconSize);
+                if (holder.iconBitmap != avatar) {
+                    holder.icon.setImageBitmap(avatar);
+                    holder.iconBitmap = avatar;
                 }
+            } else {
+                //Show nothing but keep the icon space
+                holder.icon.setVisibility(View.INVISIBLE);
+            }
 
-                // if false, icon is not shown.
-                if (!message.isIconHided()) {
-                    View iconView = mLayoutInflater.inflate(R.layout.user_icon_left, holder.iconContainer);
-                    holder.icon = (CircleImageView) iconView.findViewById(R.id.user_icon);
-                    if (message.getIconVisibility()) {
-                        //if false, set default icon.
-                        if (user.getIcon() != null) {
-                            holder.icon.setImageBitmap(user.getIcon());
-                        }
-                    } else {
-                        //Show nothing
-                        holder.icon.setImageBitmap(null);
-                    }
-
-                }
+            //Show message status
+            bindStatus(holder, message);
 
-                //Show message status
-                if (message.getMessageStatusType() == Message.MESSAGE_STATUS_ICON || message.getMessageStatusType() == Message.MESSAGE_STATUS_ICON_LEFT_ONLY) {
-                    //Show message status icon
-                    View statusIcon = mLayoutInflater.inflate(R.layout.message_status_icon, holder.statusContainer);
-                    holder.statusIcon = (ImageView)statusIcon.findViewById(R.id.status_icon_image_view);
-                    holder.statusIcon.setImageDrawable(message.getStatusIcon());
-                    setColorDrawable(mStatusColor, holder.statusIcon.getDrawable());
-                } else if (message.getMessageStatusType() == Message.MESSAGE_STATUS_TEXT || message.getMessageStatusType() == Message.MESSAGE_STATUS_TEXT_LEFT_ONLY) {
-                    //Show message status text
-                    View statusText = mLayoutInflater.inflate(R.layout.message_status_text, holder.statusContainer);
-                    holder.statusText = (TextView)statusText.findViewById(R.id.status_text_view);
-                    holder.statusText.setText(message.getStatusText());
-                    holder.statusText.setTextColor(mStatusColor);
-                }
+            //Set text or picture on message bubble
+            if (holder.messagePicture != null) {
+                //Set picture
+                bindPicture(holder, message);
+            } else {
+                //Set text
+                holder.messageText.setText(message.getMessageText());
+                //Set bubble color
+                setColorDrawable(isRight ? mRightBubbleColor : mLeftBubbleColor, holder.messageText.getBackground());
+                //Set message text color
+                holder.messageText.setTextColor(isRight ? mRightMessageTextColor : mLeftMessageTextColor);
+            }
 
-                //Set text or picture on message bubble
-                if (message.getType() == Message.Type.PICTURE) {
-                    //Set picture
-                    View pictureBubble = mLayoutInflater.inflate(R.layout.message_picture_left, holder.mainMessageContainer);
-                    holder.messagePicture = (RoundImageView) pictureBubble.findViewById(R.id.message_picture);
-                    holder.messagePicture.setImageBitmap(message.getPicture());
-                } else {
-                    //Set text
-                    View textBubble = mLayoutInflater.inflate(R.layout.message_text_left, holder.mainMessageContainer);
-                    holder.messageText = (TextView) textBubble.findViewById(R.id.message_text);
-                    holder.messageText.setText(message.getMessageText());
-                    //Set bubble color
-                    setColorDrawable(mLeftBubbleColor, holder.messageText.getBackground());
-                    //Set message text color
-                    holder.messageText.setTextColor(mLeftMessageTextColor);
-                }
+            holder.timeText.setText(message.getTimeText());
+            holder.timeText.setTextColor(mSendTimeTextColor);
 
-                holder.timeText.setText(message.getTimeText());
-                holder.timeText.setTextColor(mSendTimeTextColor);
+            //Set Padding
+            holder.itemView.setPadding(0, mMessageTopMargin, 0, mMessageBottomMargin);
 
-                //Set Padding
-                convertView.setPadding(0, mMessageTopMargin, 0, mMessageBottomMargin);
+            bindClickable(holder);
+        }
+    }
 
-            }
+    /**
+     * Make the bubble and icon clickable only if the listeners are set,
+     * so rows without listeners have no pressed state and are not announced as buttons
+     */
+    private void bindClickable(MessageViewHolder holder) {
+        holder.mainMessageContainer.setClickable(mOnBubbleClickListener != null);
+        holder.mainMessageContainer.setLongClickable(mOnBubbleLongClickListener != null);
+        holder.icon.setClickable(mOnIconClickListener != null);
+        holder.icon.setLongClickable(mOnIconLongClickListener != null);
+    }
 
-            if (holder.mainMessageContainer != null) {
-                //Set bubble click listener
-                if (mOnBubbleClickListener != null) {
-                    holder.mainMessageContainer.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View view) {
-                            mOnBubbleClickListener.onClick(message);
-                        }
-                    });
-                }
+    /**
+     * Set the picture from the cache, or decode it in background at the size of the bubble
+     * @param holder row of picture message
+     * @param message picture message
+     */
+    private void bindPicture(MessageViewHolder holder, Message message) {
+        cancelPicture(holder);
+        PictureSource source = message.getPictureSource();
+        if (source == null) {
+            holder.messagePicture.setImageBitmap(message.getPicture());
+            return;
+        }
+        int width = getPictureSize(holder.messagePicture.getWidth(), holder.messagePicture.getLayoutParams().width);
+        int height = getPictureSize(holder.messagePicture.getHeight(), holder.messagePicture.getLayoutParams().height);
+        Bitmap bitmap = mPictureLoader.getCachedBitmap(source, width, height);
+        holder.messagePicture.setImageBitmap(bitmap);
+        if (bitmap == null) {
+            holder.pictureTask = mPictureLoader.load(source, width, height, holder.messagePicture);
+        }
+    }
 
-                //Set bubble long click listener
-                if (mOnBubbleLongClickListener != null) {
-                    holder.mainMessageContainer.setOnLongClickListener(new View.OnLongClickListener() {
-                        @Override
-                        public boolean onLongClick(View view) {
-                            mOnBubbleLongClickListener.onLongClick(message);
-                            return true;//ignore onclick event
-                        }
-                    });
-                }
-            }
+    /**
+     * Return the laid out size, or the size in the layout before the bubble is laid out
+     */
+    private int getPictureSize(int size, int layoutSize) {
+        if (size > 0) {
+            return size;
+        }
+        return layoutSize > 0 ? layoutSize : mDefaultPictureSize;
+    }
 
-            //Set icon events if icon is shown
-            if (message.getIconVisibility() && holder.icon != null) {
-                //Set icon click listener
-                if (mOnIconClickListener != null) {
-                    holder.icon.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View view) {
-                            mOnIconClickListener.onIconClick(message);
-                        }
-                    });
-                }
+    private void cancelPicture(MessageViewHolder holder) {
+        if (holder.pictureTask != null) {
+            holder.pictureTask.cancel(true);
+            holder.pictureTask = null;
+        }
+    }
 
-                if (mOnIconLongClickListener != null) {
-                    holder.icon.setOnLongClickListener(new View.OnLongClickListener() {
-                        @Override
-                        public boolean onLongClick(View view) {
-                            mOnIconLongClickListener.onIconLongClick(message);
-                            return true;
-                        }
-                    });
-                }
+    @Override
+    public void onViewRecycled(RecyclerView.ViewHolder viewHolder) {
+        if (viewHolder instanceof MessageViewHolder) {
+            MessageViewHolder holder = (MessageViewHolder) viewHolder;
+            if (holder.messagePicture != null) {
+                //Stop decoding the picture which is no longer shown
+                cancelPicture(holder);
+                holder.messagePicture.setImageDrawable(null);
             }
-
         }
+    }
 
-        return convertView;
+    /**
+     * Inflate the row with all of its child views.
+     * Child views are kept while the row is recycled, and binding only changes their contents and visibility.
+     * @param parent RecyclerView which the row is attached to
+     * @param viewType message view type
+     * @return holder of the new row
+     */
+    private MessageViewHolder createMessageViewHolder(ViewGroup parent, int viewType) {
+        boolean isRight = viewType == VIEW_TYPE_RIGHT_TEXT || viewType == VIEW_TYPE_RIGHT_PICTURE;
+        View view = mLayoutInflater.inflate(
+                isRight ? R.layout.message_view_right : R.layout.message_view_left, parent, false);
+        MessageViewHolder holder = new MessageViewHolder(view);
+        holder.iconContainer = (FrameLayout) view.findViewById(R.id.user_icon_container);
+        holder.mainMessageContainer = (FrameLayout) view.findViewById(R.id.main_message_container);
+        holder.timeText = (TextView) view.findViewById(R.id.time_display_text);
+        holder.usernameContainer = (FrameLayout) view.findViewById(R.id.message_user_name_container);
+        holder.statusContainer = (FrameLayout) view.findViewById(R.id.message_status_container);
+
+        View usernameView = mLayoutInflater.inflate(
+                isRight ? R.layout.user_name_right : R.layout.user_name_left, holder.usernameContainer);
+        holder.username = (TextView) usernameView.findViewById(R.id.message_user_name);
+
+        View iconView = mLayoutInflater.inflate(
+                isRight ? R.layout.user_icon_right : R.layout.user_icon_left, holder.iconContainer);
+        holder.icon = (ImageView) iconView.findViewById(R.id.user_icon);
+
+        //Hidden icon does not receive clicks, and views are clickable only while the listeners are set
+        holder.mainMessageContainer.setOnClickListener(holder);
+        holder.mainMessageContainer.setOnLongClickListener(holder);
+        holder.icon.setOnClickListener(holder);
+        holder.icon.setOnLongClickListener(holder);
+
+        // Status icon and text are in the same container, and only one of them is shown.
+        mLayoutInflater.inflate(R.layout.message_status_icon, holder.statusContainer);
+        mLayoutInflater.inflate(R.layout.message_status_text, holder.statusContainer);
+        holder.statusIcon = (ImageView) holder.statusContainer.findViewById(R.id.status_icon_image_view);
+        holder.statusText = (TextView) holder.statusContainer.findViewById(R.id.status_text_view);
+
+        switch (viewType) {
+            case VIEW_TYPE_LEFT_PICTURE:
+            case VIEW_TYPE_RIGHT_PICTURE:
+                View pictureBubble = mLayoutInflater.inflate(
+                        isRight ? R.layout.message_picture_right : R.layout.message_picture_left,
+                        holder.mainMessageContainer);
+                holder.messagePicture = (RoundImageView) pictureBubble.findViewById(R.id.message_picture);
+                break;
+            default:
+                View textBubble = mLayoutInflater.inflate(
+                        isRight ? R.layout.message_text_right : R.layout.message_text_left,
+                        holder.mainMessageContainer);
+                holder.messageText = (TextView) textBubble.findViewById(R.id.message_text);
+                break;
+        }
+        return holder;
     }
 
     /**
@@ -362,7 +477,7 @@ public class MessageAdapter extends ArrayAdapter<Object> {
      */
     public void setLeftBubbleColor(int color) {
         mLeftBubbleColor = color;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     /**
@@ -371,48 +486,52 @@ public class MessageAdapter extends ArrayAdapter<Object> {
      */
     public void setRightBubbleColor(int color) {
         mRightBubbleColor = color;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setOnIconClickListener(Message.OnIconClickListener onIconClickListener) {
         mOnIconClickListener = onIconClickListener;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setOnBubbleClickListener(Message.OnBubbleClickListener onBubbleClickListener) {
         mOnBubbleClickListener = onBubbleClickListener;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setOnIconLongClickListener(Message.OnIconLongClickListener onIconLongClickListener) {
         mOnIconLongClickListener = onIconLongClickListener;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setOnBubbleLongClickListener(Message.OnBubbleLongClickListener onBubbleLongClickListener) {
         mOnBubbleLongClickListener = onBubbleLongClickListener;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setUsernameTextColor(int usernameTextColor) {
         mUsernameTextColor = usernameTextColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setSendTimeTextColor(int sendTimeTextColor) {
         mSendTimeTextColor = sendTimeTextColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setDateSeparatorColor(int dateSeparatorColor) {
         mDateSeparatorColor = dateSeparatorColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setRightMessageTextColor(int rightMessageTextColor) {
         mRightMessageTextColor = rightMessageTextColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setLeftMessageTextColor(int leftMessageTextColor) {
         mLeftMessageTextColor = leftMessageTextColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void setMessageTopMargin(int messageTopMargin) {
@@ -425,11 +544,20 @@ public class MessageAdapter extends ArrayAdapter<Object> {
 
     public void setStatusColor(int statusTextColor) {
         mStatusColor = statusTextColor;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
-    class MessageViewHolder {
-        CircleImageView icon;
+    /**
+     * Row of a message.
+     * The holder itself is the click listener of the bubble and icon,
+     * so no listener is created on bind and the message is looked up when clicked.
+     */
+    class MessageViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
+        ImageView icon;
+        /**
+         * Avatar which is set to the icon
+         */
+        Bitmap iconBitmap;
         FrameLayout iconContainer;
         RoundImageView messagePicture;
         TextView messageText;
@@ -440,10 +568,67 @@ public class MessageAdapter extends ArrayAdapter<Object> {
         FrameLayout statusContainer;
         ImageView statusIcon;
         TextView statusText;
+        /**
+         * Status which is shown on this row
+         */
+        int boundStatus;
+        /**
+         * Decoding picture which is set to this row
+         */
+        Future<?> pictureTask;
+
+        MessageViewHolder(View itemView) {
+            super(itemView);
+        }
+
+        /**
+         * Return the message of the row, or null if the row is being removed
+         */
+        private Message getMessage() {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || position >= mObjects.size()) {
+                return null;
+            }
+            return (Message) mObjects.get(position);
+        }
+
+        @Override
+        public void onClick(View view) {
+            Message message = getMessage();
+            if (message == null) {
+                return;
+            }
+            if (view == mainMessageContainer && mOnBubbleClickListener != null) {
+                mOnBubbleClickListener.onClick(message);
+            } else if (view == icon && mOnIconClickListener != null) {
+                mOnIconClickListener.onIconClick(message);
+            }
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            Message message = getMessage();
+            if (message == null) {
+                return false;
+            }
+            if (view == mainMessageContainer && mOnBubbleLongClickListener != null) {
+                mOnBubbleLongClickListener.onLongClick(message);
+                return true;//ignore onclick event
+            } else if (view == icon && mOnIconLongClickListener != null) {
+                mOnIconLongClickListener.onIconLongClick(message);
+                return true;
+            }
+            return false;
+        }
     }
 
-    class DateViewHolder {
+    class DateViewHolder extends RecyclerView.ViewHolder {
         TextView dateSeparatorText;
+
+        DateViewHolder(View itemView) {
+            super(itemView);
+            dateSeparatorText = (TextView) itemView.findViewById(R.id.date_separate_text);
+        }
     }
 
 
@@ -0,0 +1,167 @@
+package com.github.bassaer.chatmessageview.models;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering and footprint of {@link MessageArchive}
+ */
+public class MessageArchiveTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long BASE_TIME = localTime(2017, Calendar.JANUARY, 1);
+
+    private final User mMe = new User(0, "Michael", null);
+    private final User mYou = new User(1, "Emily", null);
+
+    private Message createMessage(long timeInMillis, int index) {
+        return new Message.Builder()
+                .setUser(index % 3 == 0 ? mMe : mYou)
+                .setRightMessage(index % 3 == 0)
+                .setMessageText("Message " + index)
+                .setStatus(index % 4)
+                .setCreatedAt(timeInMillis)
+                .build();
+    }
+
+    @Test
+    public void getChatList_sameAsTimeline() throws Exception {
+        Random random = new Random(3);
+        List<Message> history = new ArrayList<>();
+        List<Message> restored = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            history.add(createMessage(BASE_TIME + random.nextInt(5 * 24 * 60) * MINUTE, i));
+            restored.add(createMessage(BASE_TIME + random.nextInt(8 * 24 * 60) * MINUTE, i + 300));
+        }
+
+        MessageTimeline timeline = new MessageTimeline();
+        MessageArchive archive = new MessageArchive();
+        for (Message message : history) {
+            assertEquals(timeline.add(message), archive.add(message));
+        }
+        timeline.addAll(restored);
+        archive.addAll(restored);
+        //Days before and after the inserted messages are moved in place
+        for (int i = 0; i < 50; i++) {
+            Message message = createMessage(BASE_TIME + random.nextInt(10 * 24 * 60) * MINUTE, i + 600);
+            assertEquals(timeline.add(message), archive.add(message));
+        }
+
+        List<Object> expected = timeline.getChatList();
+        List<Object> actual = archive.getChatList();
+        assertEquals(expected.size(), actual.size());
+        assertEquals(650, archive.getMessageCount());
+        for (int i = 0; i < expected.size(); i++) {
+            Object expectedItem = expected.get(i);
+            Object actualItem = actual.get(i);
+            if (expectedItem instanceof DateSeparator) {
+                assertEquals(((DateSeparator) expectedItem).getEpochDay(), ((DateSeparator) actualItem).getEpochDay());
+                assertEquals(((DateSeparator) expectedItem).getText(), ((DateSeparator) actualItem).getText());
+            } else {
+                assertEquals(((Message) expectedItem).getTimeInMillis(), ((Message) actualItem).getTimeInMillis());
+                assertEquals(((Message) expectedItem).getSenderGroup(), ((Message) actualItem).getSenderGroup());
+            }
+        }
+    }
+
+    @Test
+    public void getMessage_keepsFieldsAndWindow() throws Exception {
+        MessageArchive archive = new MessageArchive();
+        Message original = createMessage(BASE_TIME, 3);
+        original.setUsernameVisibility(false);
+        original.setType(Message.Type.PICTURE);
+        archive.add(original);
+        archive.add(createMessage(BASE_TIME + MINUTE, 4));
+
+        Message message = archive.getMessage(0);
+        assertNotSame(original, message);
+        assertSame(mMe, message.getUser());
+        assertTrue(message.isRightMessage());
+        assertFalse(message.getUsernameVisibility());
+        assertEquals("Message 3", message.getMessageText());
+        assertEquals(3, message.getStatus());
+        assertEquals(Message.Type.PICTURE, message.getType());
+        assertEquals(original.getTimeText(), message.getTimeText());
+        assertSame(original.getSendTimeFormatter(), message.getSendTimeFormatter());
+
+        //Same object while the row stays in the window
+        assertSame(message, archive.getChatList().get(1));
+        assertSame(mYou, archive.getMessage(1).getUser());
+    }
+
+    /**
+     * Messages are kept in columns, so the number of objects held by the archive does not depend on the history size
+     */
+    @Test
+    public void archive_keepsNoObjectPerMessage() throws Exception {
+        assertEquals(countObjects(createArchive(100)), countObjects(createArchive(10000)));
+    }
+
+    private MessageArchive createArchive(int count) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(createMessage(BASE_TIME + i * MINUTE, i));
+        }
+        MessageArchive archive = new MessageArchive();
+        archive.addAll(messages);
+        assertEquals(count, archive.getMessageCount());
+        return archive;
+    }
+
+    /**
+     * Count objects reachable from the root.
+     * Objects of the platform classes such as lists are counted but not followed.
+     */
+    private static int countObjects(Object root) throws IllegalAccessException {
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Object object = stack.pop();
+            if (visited.put(object, true) != null) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (element != null) {
+                            stack.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+            for (Class<?> c = type; c != null && !c.getName().startsWith("java."); c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    Object value = field.get(object);
+                    if (value != null) {
+                        stack.push(value);
+                    }
+                }
+            }
+        }
+        return visited.size();
+    }
+
+    private static long localTime(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+}
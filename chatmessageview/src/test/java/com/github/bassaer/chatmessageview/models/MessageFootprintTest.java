@@ -0,0 +1,203 @@
+package com.github.bassaer.chatmessageview.models;
+
+import android.graphics.Bitmap;
+
+import com.github.bassaer.chatmessageview.utils.DateFormatter;
+import com.github.bassaer.chatmessageview.utils.DefaultTimeFormatter;
+import com.github.bassaer.chatmessageview.utils.IMessageStatusIconFormatter;
+import com.github.bassaer.chatmessageview.utils.IMessageStatusTextFormatter;
+import com.github.bassaer.chatmessageview.utils.ITimeFormatter;
+import com.github.bassaer.chatmessageview.utils.SendTimeFormatter;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Heap footprint of {@link Message}
+ */
+public class MessageFootprintTest {
+
+    private static final int COUNT = 1000;
+
+    /**
+     * Estimated bytes of a message without text and picture, which fails when fields are added
+     */
+    private static final int MAX_BYTES_PER_MESSAGE = 96;
+
+    /**
+     * Object header and reference sizes of a 64-bit VM with compressed references
+     */
+    private static final int HEADER_SIZE = 12;
+    private static final int ARRAY_HEADER_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+
+    /**
+     * Fields of {@link Message} before the timestamp was kept as a long.
+     * The constructor allocated a Calendar and three formatters for each message.
+     */
+    @SuppressWarnings("unused")
+    private static class BaselineMessage {
+        private User mUser;
+        private boolean mUsernameVisibility = true;
+        private boolean mIconVisibility = true;
+        private boolean mHideIcon = false;
+        private boolean isRightMessage;
+        private String mMessageText;
+        private Calendar mCreatedAt;
+        private boolean isDateCell;
+        private ITimeFormatter mSendTimeFormatter;
+        private ITimeFormatter mDateFormatter;
+        private int mStatus;
+        private int mMessageStatusType;
+        private IMessageStatusIconFormatter mStatusIconFormatter;
+        private IMessageStatusTextFormatter mStatusTextFormatter;
+        private Bitmap mPicture;
+        private Message.Type mType;
+
+        BaselineMessage(User user, String text) {
+            mCreatedAt = Calendar.getInstance();
+            mSendTimeFormatter = new SendTimeFormatter();
+            mDateFormatter = new DateFormatter();
+            mSendTimeFormatter = new DefaultTimeFormatter();
+            mType = Message.Type.TEXT;
+            mUser = user;
+            mMessageText = text;
+        }
+    }
+
+    @Test
+    public void message_isSmallerThanBaseline() throws Exception {
+        User user = new User(0, "Michael", null);
+        String text = "Hello";
+        List<Object> messages = new ArrayList<>(COUNT);
+        List<Object> baselines = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            messages.add(new Message.Builder()
+                    .setUser(user)
+                    .setMessageText(text)
+                    .build());
+            baselines.add(new BaselineMessage(user, text));
+        }
+
+        Footprint current = measure(messages, user, text);
+        Footprint baseline = measure(baselines, user, text);
+        //Only the message itself
+        assertEquals(1, current.objects / COUNT);
+        //Message, Calendar and the two formatters which are kept at least
+        assertTrue("baseline objects: " + baseline.objects / COUNT, baseline.objects / COUNT >= 4);
+        assertTrue("bytes per message: " + current.bytes / COUNT + ", baseline: " + baseline.bytes / COUNT,
+                current.bytes < baseline.bytes);
+        assertTrue("bytes per message: " + current.bytes / COUNT, current.bytes / COUNT <= MAX_BYTES_PER_MESSAGE);
+    }
+
+    @Test
+    public void message_refersOnlyToSharedObjects() throws Exception {
+        User user = new User(0, "Michael", null);
+        String text = "Hello";
+        Message message = new Message.Builder()
+                .setUser(user)
+                .setMessageText(text)
+                .build();
+        Message other = new Message.Builder()
+                .setUser(user)
+                .setMessageText(text)
+                .build();
+
+        for (Field field : Message.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                continue;
+            }
+            assertFalse(field.getName() + " is a Calendar", Calendar.class.isAssignableFrom(field.getType()));
+            field.setAccessible(true);
+            assertSame(field.getName() + " is not shared", field.get(message), field.get(other));
+        }
+    }
+
+    private static class Footprint {
+        private long objects;
+        private long bytes;
+    }
+
+    /**
+     * Sum the objects reachable from the items except the shared ones and the list itself.
+     * Objects of the platform classes such as Calendar are counted by their own fields but not followed.
+     */
+    private static Footprint measure(List<Object> items, Object... shared) throws IllegalAccessException {
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        for (Object object : shared) {
+            visited.put(object, true);
+        }
+        ArrayDeque<Object> stack = new ArrayDeque<>(items);
+        Footprint footprint = new Footprint();
+        while (!stack.isEmpty()) {
+            Object object = stack.pop();
+            if (visited.put(object, true) != null) {
+                continue;
+            }
+            footprint.objects++;
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = java.lang.reflect.Array.getLength(object);
+                Class<?> component = type.getComponentType();
+                footprint.bytes += align(ARRAY_HEADER_SIZE + (long) length * sizeOf(component));
+                if (!component.isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (element != null) {
+                            stack.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+            long size = HEADER_SIZE;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                boolean platform = c.getName().startsWith("java.");
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    size += sizeOf(field.getType());
+                    if (platform || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    Object value = field.get(object);
+                    if (value != null) {
+                        stack.push(value);
+                    }
+                }
+            }
+            footprint.bytes += align(size);
+        }
+        return footprint;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) / 8 * 8;
+    }
+}
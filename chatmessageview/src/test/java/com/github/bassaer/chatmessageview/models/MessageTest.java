@@ -0,0 +1,79 @@
+package com.github.bassaer.chatmessageview.models;
+
+import com.github.bassaer.chatmessageview.utils.ITimeFormatter;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Formatted texts of {@link Message}
+ */
+public class MessageTest {
+
+    private Message createMessage() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.JANUARY, 1, 12, 30);
+        return new Message.Builder()
+                .setUser(new User(0, "Michael", null))
+                .setCreatedAt(calendar)
+                .build();
+    }
+
+    @Test
+    public void getTimeText_keepsFormattedText() throws Exception {
+        Message message = createMessage();
+        assertEquals("12:30", message.getTimeText());
+        assertSame(message.getTimeText(), message.getTimeText());
+        assertSame(message.getDateSeparateText(), message.getDateSeparateText());
+    }
+
+    @Test
+    public void getTimeText_formatsAgainAfterChange() throws Exception {
+        Message message = createMessage();
+        message.getTimeText();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(message.getTimeInMillis() + 60 * 1000);
+        message.setCreatedAt(calendar);
+        assertEquals("12:31", message.getTimeText());
+
+        //Only the time is kept, so the calendar does not change the message any more
+        calendar.add(Calendar.MINUTE, 1);
+        message.getCreatedAt().add(Calendar.MINUTE, 1);
+        assertEquals("12:31", message.getTimeText());
+
+        message.setCreatedAt(calendar.getTimeInMillis());
+        assertEquals("12:32", message.getTimeText());
+
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            assertEquals("Jan. 01, 2017", message.getDateSeparateText());
+            Locale.setDefault(Locale.FRANCE);
+            assertNotEquals("Jan. 01, 2017", message.getDateSeparateText());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void getTimeText_callsCustomFormatterEveryTime() throws Exception {
+        Message message = createMessage();
+        final int[] count = {0};
+        message.setSendTimeFormatter(new ITimeFormatter() {
+            @Override
+            public String getFormattedTimeText(Calendar createdAt) {
+                count[0]++;
+                return "now";
+            }
+        });
+        message.getTimeText();
+        message.getTimeText();
+        assertEquals(2, count[0]);
+    }
+}
@@ -0,0 +1,567 @@
+package com.github.bassaer.chatmessageview.models;
+
+import com.github.bassaer.chatmessageview.utils.DateFormatCache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering and insert cost of {@link MessageTimeline}
+ */
+public class MessageTimelineTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long BASE_TIME = localTime(2017, Calendar.JANUARY, 1);
+
+    private final User mUser = new User(0, "Michael", null);
+
+    private Message createMessage(long timeInMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeInMillis);
+        return new Message.Builder()
+                .setUser(mUser)
+                .setMessageText("Hello")
+                .setCreatedAt(calendar)
+                .build();
+    }
+
+    @Test
+    public void add_keepsChronologicalOrder() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        List<Message> messages = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            messages.add(createMessage(BASE_TIME + random.nextInt(10 * 24 * 60) * MINUTE));
+        }
+        for (Message message : messages) {
+            timeline.add(message);
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (Message message : messages) {
+            expected.add(message.getCreatedAt().getTimeInMillis());
+        }
+        Collections.sort(expected);
+
+        List<Long> actual = new ArrayList<>();
+        for (Message message : timeline.getMessageList()) {
+            actual.add(message.getCreatedAt().getTimeInMillis());
+        }
+        assertEquals(expected, actual);
+        assertEquals(messages.size() + countDays(expected), timeline.size());
+    }
+
+    @Test
+    public void add_putsDateSeparatorBeforeMessagesOfTheDay() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        Message second = createMessage(BASE_TIME + 24 * 60 * MINUTE + 10 * MINUTE);
+        Message first = createMessage(BASE_TIME + 10 * MINUTE);
+        Message earlier = createMessage(BASE_TIME + 24 * 60 * MINUTE + 5 * MINUTE);
+
+        assertEquals(1, timeline.add(second));
+        assertEquals(1, timeline.add(first));
+        assertEquals(3, timeline.add(earlier));
+
+        List<Object> items = timeline.getChatList();
+        assertEquals(5, items.size());
+        assertEquals(first.getDateSeparateText(), ((DateSeparator) items.get(0)).getText());
+        assertSame(first, items.get(1));
+        assertEquals(second.getDateSeparateText(), ((DateSeparator) items.get(2)).getText());
+        assertSame(earlier, items.get(3));
+        assertSame(second, items.get(4));
+    }
+
+    @Test
+    public void add_ordersDateSeparatorsInAnyLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            for (Locale locale : new Locale[]{Locale.US, Locale.JAPAN, Locale.GERMANY, new Locale("ar")}) {
+                Locale.setDefault(locale);
+                MessageTimeline timeline = new MessageTimeline();
+                for (int day = 30; day >= 0; day--) {
+                    timeline.add(createMessage(BASE_TIME + day * 24 * 60 * MINUTE + 12 * 60 * MINUTE));
+                }
+                List<Object> items = timeline.getChatList();
+                assertEquals(62, items.size());
+                long prevDay = Long.MIN_VALUE;
+                for (int i = 0; i < items.size(); i += 2) {
+                    DateSeparator separator = (DateSeparator) items.get(i);
+                    assertTrue(locale.toString(), separator.getEpochDay() > prevDay);
+                    assertTrue(separator.getTimeInMillis() < ((Message) items.get(i + 1)).getTimeInMillis());
+                    prevDay = separator.getEpochDay();
+                }
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void addAll_mergesSameAsAddingOneByOne() throws Exception {
+        Random random = new Random(2);
+        List<Message> history = new ArrayList<>();
+        List<Message> restored = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            history.add(createMessage(BASE_TIME + random.nextInt(5 * 24 * 60) * MINUTE));
+            restored.add(createMessage(BASE_TIME + random.nextInt(8 * 24 * 60) * MINUTE));
+        }
+
+        MessageTimeline expected = new MessageTimeline();
+        MessageTimeline actual = new MessageTimeline();
+        for (Message message : history) {
+            expected.add(message);
+            actual.add(message);
+        }
+        for (Message message : restored) {
+            expected.add(message);
+        }
+        List<Object> chatList = actual.getChatList();
+        actual.addAll(restored);
+
+        assertSame(chatList, actual.getChatList());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Object expectedItem = expected.getChatList().get(i);
+            Object actualItem = actual.getChatList().get(i);
+            if (expectedItem instanceof DateSeparator) {
+                assertEquals(((DateSeparator) expectedItem).getEpochDay(), ((DateSeparator) actualItem).getEpochDay());
+            } else {
+                assertEquals(((Message) expectedItem).getTimeInMillis(), ((Message) actualItem).getTimeInMillis());
+            }
+        }
+        assertEquals(600, actual.getMessageList().size());
+    }
+
+    @Test
+    public void addAll_appendsNewerMessages() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        timeline.add(createMessage(BASE_TIME + MINUTE));
+        List<Message> messages = new ArrayList<>();
+        messages.add(createMessage(BASE_TIME + 3 * MINUTE));
+        messages.add(createMessage(BASE_TIME + 2 * MINUTE));
+
+        assertEquals(2, timeline.addAll(messages));
+        assertSame(messages.get(0), timeline.getLastChatObject());
+        assertEquals(4, timeline.size());
+        assertEquals(-1, timeline.addAll(new ArrayList<Message>()));
+    }
+
+    @Test
+    public void remove_dropsDateSeparatorWithLastMessageOfTheDay() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        Message morning = createMessage(BASE_TIME + 9 * 60 * MINUTE);
+        Message evening = createMessage(BASE_TIME + 18 * 60 * MINUTE);
+        Message nextDay = createMessage(BASE_TIME + 33 * 60 * MINUTE);
+        timeline.add(morning);
+        timeline.add(evening);
+        timeline.add(nextDay);
+        assertEquals(5, timeline.size());
+
+        assertEquals(1, timeline.remove(morning));
+        assertEquals(4, timeline.size());
+        assertTrue(timeline.hasDateSeparator(evening.getCreatedAt().getTimeInMillis()));
+
+        assertEquals(1, timeline.remove(evening));
+        assertEquals(2, timeline.size());
+        assertFalse(timeline.hasDateSeparator(evening.getCreatedAt().getTimeInMillis()));
+        assertSame(nextDay, timeline.getLastChatObject());
+
+        assertEquals(-1, timeline.remove(evening));
+    }
+
+    @Test
+    public void remove_afterTimeZoneChange() throws Exception {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            DateFormatCache.invalidate();
+            MessageTimeline timeline = new MessageTimeline();
+            //2017/01/01 20:00 and 2017/01/02 01:00 in UTC, which are on the same day in Tokyo
+            Message evening = createMessage(1483300800000L);
+            Message morning = createMessage(1483318800000L);
+            timeline.add(evening);
+            timeline.add(morning);
+            assertEquals(3, timeline.size());
+
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            DateFormatCache.invalidate();
+            assertEquals(1, timeline.remove(evening));
+            assertEquals(2, timeline.size());
+            assertEquals(1, timeline.remove(morning));
+            assertEquals(0, timeline.size());
+
+            timeline.add(evening);
+            timeline.add(morning);
+            assertEquals(4, timeline.size());
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+            DateFormatCache.invalidate();
+        }
+    }
+
+    @Test
+    public void rebuildDays_groupsMessagesInNewTimeZone() throws Exception {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            DateFormatCache.invalidate();
+            MessageTimeline timeline = new MessageTimeline();
+            Message evening = createMessage(1483300800000L);
+            Message morning = createMessage(1483318800000L);
+            timeline.add(evening);
+            timeline.add(morning);
+
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            DateFormatCache.invalidate();
+            timeline.rebuildDays();
+            assertEquals(4, timeline.size());
+            assertTrue(timeline.getChatList().get(2) instanceof DateSeparator);
+            assertSame(morning, timeline.getLastChatObject());
+
+            assertEquals(1, timeline.remove(evening));
+            assertEquals(2, timeline.size());
+            assertFalse(timeline.hasDateSeparator(evening.getTimeInMillis()));
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+            DateFormatCache.invalidate();
+        }
+    }
+
+    @Test
+    public void remove_findsMessageAmongSameTime() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        Message first = createMessage(BASE_TIME + MINUTE);
+        Message second = createMessage(BASE_TIME + MINUTE);
+        timeline.add(first);
+        timeline.add(second);
+
+        assertEquals(2, timeline.remove(second));
+        assertSame(first, timeline.getLastChatObject());
+        assertEquals(1, timeline.getMessageList().size());
+    }
+
+    @Test
+    public void indexOf_findsMessageAfterPrependingOlderPage() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        Message anchor = createMessage(BASE_TIME + 24 * 60 * MINUTE);
+        timeline.add(anchor);
+        List<Message> olderPage = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            olderPage.add(createMessage(BASE_TIME + i * MINUTE));
+        }
+        timeline.addAll(olderPage);
+
+        assertEquals(12, timeline.indexOf(anchor));
+        assertEquals(-1, timeline.indexOf(createMessage(BASE_TIME)));
+
+        timeline.clear();
+        assertEquals(0, timeline.size());
+        assertEquals(-1, timeline.indexOf(anchor));
+        assertFalse(timeline.hasDateSeparator(anchor.getTimeInMillis()));
+    }
+
+    @Test
+    public void getMessage_findsMessageById() throws Exception {
+        MessageTimeline timeline = new MessageTimeline();
+        Message first = createMessage(BASE_TIME);
+        Message second = createMessage(BASE_TIME + MINUTE);
+        second.setId(100);
+        assertNotEquals(first.getId(), createMessage(BASE_TIME).getId());
+        timeline.add(first);
+        List<Message> page = new ArrayList<>();
+        page.add(second);
+        timeline.addAll(page);
+
+        assertSame(first, timeline.getMessage(first.getId()));
+        assertSame(second, timeline.getMessage(100));
+        assertEquals(2, timeline.indexOf(timeline.getMessage(100)));
+
+        timeline.remove(second);
+        assertNull(timeline.getMessage(100));
+        timeline.clear();
+        assertNull(timeline.getMessage(first.getId()));
+    }
+
+    @Test
+    public void setStatusUntil_appliesStatusToRightMessagesInRange() throws Exception {
+        final int delivered = 1;
+        final int seen = 2;
+        MessageTimeline timeline = new MessageTimeline();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Message message = createMessage(BASE_TIME + i * MINUTE);
+            message.setRightMessage(i != 5);
+            messages.add(message);
+            timeline.add(message);
+        }
+
+        assertTrue(timeline.setStatusUntil(messages.get(7), delivered));
+        assertEquals(delivered, timeline.getStatus(messages.get(7)));
+        assertEquals(delivered, timeline.getStatus(messages.get(0)));
+        assertEquals(0, timeline.getStatus(messages.get(8)));
+        assertEquals(0, timeline.getStatus(messages.get(5)));
+        //Status of each message is not changed
+        assertEquals(0, messages.get(0).getStatus());
+
+        assertTrue(timeline.setStatusUntil(messages.get(9), seen));
+        assertEquals(seen, timeline.getStatus(messages.get(9)));
+        assertEquals(seen, timeline.getStatus(messages.get(3)));
+        assertEquals(0, timeline.getStatus(messages.get(5)));
+
+        timeline.clear();
+        assertEquals(0, timeline.getStatus(messages.get(9)));
+    }
+
+    @Test
+    public void setStatusUntil_doesNotMoveBack() throws Exception {
+        final int delivered = 1;
+        final int seen = 2;
+        MessageTimeline timeline = new MessageTimeline();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Message message = createMessage(BASE_TIME + i * MINUTE);
+            message.setRightMessage(true);
+            messages.add(message);
+            timeline.add(message);
+        }
+
+        assertTrue(timeline.setStatusUntil(messages.get(7), seen));
+        //Older receipt does not change seen messages
+        assertFalse(timeline.setStatusUntil(messages.get(3), delivered));
+        assertFalse(timeline.setStatusUntil(messages.get(7), delivered));
+        assertEquals(seen, timeline.getStatus(messages.get(2)));
+        assertEquals(seen, timeline.getStatus(messages.get(7)));
+        assertEquals(0, timeline.getStatus(messages.get(8)));
+    }
+
+    @Test
+    public void setStatusUntil_coversOnlyMessagesBeforeAtSameTime() throws Exception {
+        final int seen = 2;
+        MessageTimeline timeline = new MessageTimeline();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Message message = createMessage(BASE_TIME);
+            message.setRightMessage(true);
+            messages.add(message);
+            timeline.add(message);
+        }
+
+        assertTrue(timeline.setStatusUntil(messages.get(1), seen));
+        assertEquals(seen, timeline.getStatus(messages.get(0)));
+        assertEquals(seen, timeline.getStatus(messages.get(1)));
+        assertEquals(0, timeline.getStatus(messages.get(2)));
+        assertEquals(0, timeline.getStatus(messages.get(3)));
+
+        //Message of the same time is added after the others
+        Message later = createMessage(BASE_TIME);
+        later.setRightMessage(true);
+        timeline.add(later);
+        assertEquals(0, timeline.getStatus(later));
+
+        assertFalse(timeline.setStatusUntil(messages.get(0), 1));
+        assertTrue(timeline.setStatusUntil(messages.get(3), seen));
+        assertEquals(seen, timeline.getStatus(messages.get(3)));
+        assertEquals(0, timeline.getStatus(later));
+    }
+
+    @Test
+    public void setStatus_overridesWatermark() throws Exception {
+        final int seen = 2;
+        final int failed = 3;
+        MessageTimeline timeline = new MessageTimeline();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Message message = createMessage(BASE_TIME + i * MINUTE);
+            message.setRightMessage(true);
+            messages.add(message);
+            timeline.add(message);
+        }
+
+        timeline.setStatusUntil(messages.get(3), seen);
+        timeline.setStatus(messages.get(1), failed);
+        assertEquals(failed, timeline.getStatus(messages.get(1)));
+        assertEquals(seen, timeline.getStatus(messages.get(2)));
+
+        //Message added after the receipt keeps its own status
+        Message late = createMessage(BASE_TIME + MINUTE / 2);
+        late.setRightMessage(true);
+        timeline.add(late);
+        assertEquals(0, timeline.getStatus(late));
+
+        //Next receipt applies to all messages in the range
+        timeline.setStatusUntil(messages.get(4), seen);
+        assertEquals(seen, timeline.getStatus(messages.get(1)));
+        assertEquals(seen, timeline.getStatus(late));
+    }
+
+    @Test
+    public void add_updatesSenderGroupsOfNeighbours() throws Exception {
+        User other = new User(1, "Emily", null);
+        MessageTimeline timeline = new MessageTimeline();
+        Message first = createMessage(BASE_TIME + MINUTE);
+        Message last = createMessage(BASE_TIME + 3 * MINUTE);
+        timeline.add(last);
+        timeline.add(first);
+        assertEquals(Message.SENDER_GROUP_FIRST, first.getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_LAST, last.getSenderGroup());
+
+        Message middle = createMessage(BASE_TIME + 2 * MINUTE);
+        timeline.add(middle);
+        assertEquals(Message.SENDER_GROUP_MIDDLE, middle.getSenderGroup());
+        assertTrue(last.isContinuedFromPrevious());
+
+        //Message of another sender in between splits the group
+        Message reply = createMessage(BASE_TIME + 2 * MINUTE + 30 * 1000);
+        reply.setUser(other);
+        timeline.add(reply);
+        assertEquals(Message.SENDER_GROUP_LAST, middle.getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_SINGLE, reply.getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_SINGLE, last.getSenderGroup());
+        assertFalse(last.isContinuedFromPrevious());
+
+        timeline.remove(reply);
+        assertEquals(Message.SENDER_GROUP_MIDDLE, middle.getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_LAST, last.getSenderGroup());
+
+        //Date separator also splits the group
+        List<Message> nextDay = new ArrayList<>();
+        nextDay.add(createMessage(BASE_TIME + 24 * 60 * MINUTE));
+        nextDay.add(createMessage(BASE_TIME + 24 * 60 * MINUTE + MINUTE));
+        timeline.addAll(nextDay);
+        assertEquals(Message.SENDER_GROUP_LAST, last.getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_FIRST, nextDay.get(0).getSenderGroup());
+        assertEquals(Message.SENDER_GROUP_LAST, nextDay.get(1).getSenderGroup());
+    }
+
+    @Test
+    public void removeOldestAndNewest_matchBuildingFromRemainingMessages() throws Exception {
+        Random random = new Random(5);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Message message = createMessage(BASE_TIME + random.nextInt(5 * 24 * 60) * MINUTE);
+            message.setUser(new User(random.nextInt(2), "Michael", null));
+            messages.add(message);
+        }
+        for (int count : new int[]{1, 37, 150, 299, 300}) {
+            MessageTimeline oldest = new MessageTimeline();
+            oldest.addAll(messages);
+            List<Message> sorted = new ArrayList<>(oldest.getMessageList());
+            int removed = oldest.removeOldest(count);
+            assertEquals(sorted.size() + countDays(getTimes(sorted)) - oldest.size(), removed);
+            assertTimeline(sorted.subList(count, sorted.size()), oldest);
+            assertNull(oldest.getMessage(sorted.get(count - 1).getId()));
+
+            MessageTimeline newest = new MessageTimeline();
+            newest.addAll(messages);
+            int start = newest.removeNewest(count);
+            assertEquals(newest.size(), start);
+            assertTimeline(sorted.subList(0, sorted.size() - count), newest);
+        }
+    }
+
+    /**
+     * Assert the timeline has the same items as a timeline built from the messages, and that day counts are kept
+     */
+    private void assertTimeline(List<Message> expected, MessageTimeline actual) {
+        //Messages are shared with the built timeline, which sets their sender groups again
+        List<Integer> actualGroups = new ArrayList<>();
+        for (Message message : actual.getMessageList()) {
+            actualGroups.add(message.getSenderGroup());
+        }
+        MessageTimeline built = new MessageTimeline();
+        built.addAll(expected);
+        List<Object> expectedItems = built.getChatList();
+        List<Object> actualItems = actual.getChatList();
+        assertEquals(expectedItems.size(), actualItems.size());
+        for (int i = 0; i < expectedItems.size(); i++) {
+            Object item = expectedItems.get(i);
+            if (item instanceof DateSeparator) {
+                assertEquals(((DateSeparator) item).getEpochDay(), ((DateSeparator) actualItems.get(i)).getEpochDay());
+            } else {
+                assertSame(item, actualItems.get(i));
+            }
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((int) actualGroups.get(i), expected.get(i).getSenderGroup());
+        }
+        //Separators are removed with the last message of each day
+        for (Message message : new ArrayList<>(expected)) {
+            assertTrue(actual.remove(message) >= 0);
+        }
+        assertEquals(0, actual.size());
+    }
+
+    private static List<Long> getTimes(List<Message> messages) {
+        List<Long> times = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            times.add(message.getTimeInMillis());
+        }
+        return times;
+    }
+
+    /**
+     * Inserting a message compares it with O(log n) items, while a full re-sort on each insert
+     * would read the time of every item in the timeline.
+     */
+    @Test
+    public void add_readsLogarithmicNumberOfItems() throws Exception {
+        final int total = 20000;
+        final long[] reads = new long[1];
+        List<Message> messages = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            // Every 10th message arrives a little late and is inserted before the tail
+            long offset = i % 10 == 9 ? -3 : 0;
+            Message message = new Message() {
+                @Override
+                public long getTimeInMillis() {
+                    reads[0]++;
+                    return super.getTimeInMillis();
+                }
+            };
+            message.setUser(mUser);
+            message.setCreatedAt(BASE_TIME + (i + offset) * MINUTE);
+            messages.add(message);
+        }
+
+        MessageTimeline timeline = new MessageTimeline();
+        for (Message message : messages) {
+            timeline.add(message);
+        }
+        assertEquals(total, timeline.getMessageList().size());
+        // Two binary searches on the chat list and the message list, with two reads per comparison
+        int depth = 32 - Integer.numberOfLeadingZeros(total * 2);
+        long maxReads = (long) total * (4 * (depth + 1) + 8);
+        assertTrue("read times " + reads[0] + " times", reads[0] < maxReads);
+    }
+
+    private static long localTime(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int countDays(List<Long> sortedTimes) {
+        int days = 0;
+        Calendar prev = null;
+        for (long time : sortedTimes) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            if (prev == null || prev.get(Calendar.DAY_OF_YEAR) != calendar.get(Calendar.DAY_OF_YEAR)
+                    || prev.get(Calendar.YEAR) != calendar.get(Calendar.YEAR)) {
+                days++;
+            }
+            prev = calendar;
+        }
+        return days;
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.bassaer.chatmessageview.models;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cache keys of {@link PictureSource}
+ */
+public class PictureSourceTest {
+
+    private static final byte[] PICTURE = {(byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, 5};
+
+    @Test
+    public void getKey_sameForSameBytes() throws Exception {
+        String key = PictureSource.fromBytes(PICTURE).getKey();
+        //Restored message has another array of the same picture
+        assertEquals(key, PictureSource.fromBytes(PICTURE.clone()).getKey());
+
+        byte[] other = PICTURE.clone();
+        other[other.length - 1]++;
+        assertNotEquals(key, PictureSource.fromBytes(other).getKey());
+        assertNotEquals(key, PictureSource.fromFile(new File("picture.jpg")).getKey());
+    }
+
+    @Test
+    public void getComputedKey_doesNotHashBytes() throws Exception {
+        PictureSource source = PictureSource.fromBytes(PICTURE);
+        assertNull(source.getComputedKey());
+        String key = source.getKey();
+        assertEquals(key, source.getComputedKey());
+
+        PictureSource file = PictureSource.fromFile(new File("picture.jpg"));
+        assertEquals(file.getKey(), file.getComputedKey());
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Initials and keys of {@link AvatarCache}
+ */
+public class AvatarCacheTest {
+
+    @Test
+    public void getKey_isUniquePerUserAndSize() throws Exception {
+        assertNotEquals(AvatarCache.getKey(1, 48), AvatarCache.getKey(1, 96));
+        assertNotEquals(AvatarCache.getKey(1, 48), AvatarCache.getKey(48, 1));
+        assertNotEquals(AvatarCache.getKey(-1, 48), AvatarCache.getKey(0, 48));
+        assertEquals(-1, AvatarCache.getUserId(AvatarCache.getKey(-1, 48)));
+        assertEquals(Integer.MAX_VALUE, AvatarCache.getUserId(AvatarCache.getKey(Integer.MAX_VALUE, 48)));
+    }
+
+    @Test
+    public void getInitials_usesFirstAndLastWords() throws Exception {
+        assertEquals("M", AvatarCache.getInitials("michael"));
+        assertEquals("EB", AvatarCache.getInitials(" Emily  Jane Brown "));
+        assertEquals("", AvatarCache.getInitials(null));
+        assertEquals("", AvatarCache.getInitials("   "));
+    }
+
+    @Test
+    public void getInitials_keepsSurrogatePair() throws Exception {
+        assertEquals("\uD83D\uDE00S", AvatarCache.getInitials("\uD83D\uDE00 smile"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cached formats of {@link DateFormatCache}
+ */
+public class DateFormatCacheTest {
+
+    private static final long TIME = 1483272000000L;
+
+    @Test
+    public void format_sameAsSimpleDateFormat() throws Exception {
+        assertEquals(new SimpleDateFormat("HH:mm").format(new Date(TIME)), DateFormatCache.format(TIME, "HH:mm"));
+        assertEquals(new SimpleDateFormat("MMM. dd, yyyy").format(new Date(TIME)),
+                DateFormatCache.format(TIME, "MMM. dd, yyyy"));
+    }
+
+    @Test
+    public void format_followsDefaultLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            int generation = DateFormatCache.getGeneration();
+            assertEquals(new SimpleDateFormat("MMMM", Locale.US).format(new Date(TIME)), DateFormatCache.format(TIME, "MMMM"));
+
+            Locale.setDefault(Locale.GERMANY);
+            assertNotEquals(generation, DateFormatCache.getGeneration());
+            assertEquals(new SimpleDateFormat("MMMM", Locale.GERMANY).format(new Date(TIME)),
+                    DateFormatCache.format(TIME, "MMMM"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void format_followsDefaultTimeZoneAfterInvalidate() throws Exception {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            DateFormatCache.invalidate();
+            int generation = DateFormatCache.getGeneration();
+            assertEquals("21:00", DateFormatCache.format(TIME, "HH:mm"));
+
+            //Time zone is not read on every format
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            assertEquals(generation, DateFormatCache.getGeneration());
+            assertEquals("21:00", DateFormatCache.format(TIME, "HH:mm"));
+
+            DateFormatCache.invalidate();
+            assertNotEquals(generation, DateFormatCache.getGeneration());
+            //Messages are grouped by the day in the same time zone
+            assertEquals("12:00", DateFormatCache.format(TIME, "HH:mm"));
+            assertEquals(TIME / TimeUtils.MILLIS_OF_DAY, TimeUtils.getEpochDay(TIME));
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+            DateFormatCache.invalidate();
+        }
+    }
+
+    @Test
+    public void format_isThreadSafe() throws Exception {
+        final String pattern = "yyyy/MM/dd HH:mm:ss.SSS";
+        final AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final long offset = t * 7919L;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SimpleDateFormat expected = new SimpleDateFormat(pattern);
+                    for (int i = 0; i < 5000; i++) {
+                        long time = TIME + offset + i * 1013L;
+                        if (!expected.format(new Date(time)).equals(DateFormatCache.format(time, pattern))) {
+                            failure.set("wrong text at " + time);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.bassaer.chatmessageview.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downsampling of {@link PictureLoader}
+ */
+public class PictureLoaderTest {
+
+    @Test
+    public void calculateInSampleSize_keepsPictureLargerThanView() throws Exception {
+        // 12MP camera photo into a 600px bubble
+        assertEquals(4, PictureLoader.calculateInSampleSize(4000, 3000, 600, 600));
+        assertEquals(2, PictureLoader.calculateInSampleSize(1200, 1200, 600, 600));
+        assertEquals(1, PictureLoader.calculateInSampleSize(1199, 1199, 600, 600));
+    }
+
+    @Test
+    public void calculateInSampleSize_doesNotUpscaleSmallPicture() throws Exception {
+        assertEquals(1, PictureLoader.calculateInSampleSize(100, 100, 600, 600));
+        assertEquals(1, PictureLoader.calculateInSampleSize(4000, 3000, 0, 0));
+    }
+}
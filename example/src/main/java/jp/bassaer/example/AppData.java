@@ -2,8 +2,12 @@ package jp.bassaer.example;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
-import com.google.gson.Gson;
+import com.github.bassaer.chatmessageview.store.MessageStore;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Save Chat data
@@ -11,67 +15,33 @@ import com.google.gson.Gson;
  */
 public class AppData {
 
-    /**
-     * Save keys
-     */
-    public enum Key {
-        MessageList
-    }
-
-    /**
-     * Save object data as json
-     * @param context application context
-     * @param key save key
-     * @param object save object
-     */
-    public static void putObjectData(Context context, String key, Object object) {
-        SharedPreferences sharedPreferences = context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        Gson gson =new Gson();
-        String jsonData = gson.toJson(object);
-        editor.putString(key, jsonData);
-        editor.apply();
-    }
-
-    /**
-     * Load object data
-     * @param context application context
-     * @param key saved key
-     * @param classOfT saved type
-     * @return
-     */
-    public static Object getObjectData(Context context, String key, Class classOfT) {
-        SharedPreferences sharedPreferences = context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
-        Gson gson = new Gson();
-        String jsonData = sharedPreferences.getString(key, "");
-        if (jsonData.equals("")) {
-            return null;
-        } else {
-            return gson.fromJson(jsonData, classOfT);
-        }
-    }
+    private static final String TAG = "AppData";
 
     /**
-     * Save Message list
-     * @param context application context
-     * @param messages receive and sent messages
+     * Directory of the message store in the files directory
      */
-    public static void putMessageList(Context context, MessageList messages) {
-        putObjectData(context, Key.MessageList.name(), messages);
-    }
+    private static final String MESSAGE_DIRECTORY = "messages";
 
     /**
-     * Load saved messages
+     * Open the store of sent and received messages
      * @param context application context
-     * @return saved messages
+     * @return opened store
+     * @throws IOException if the store could not be read
      */
-    public static MessageList getMessageList(Context context) {
-        return (MessageList) getObjectData(context,Key.MessageList.name(), MessageList.class);
+    public static MessageStore openMessageStore(Context context) throws IOException {
+        return MessageStore.open(new File(context.getFilesDir(), MESSAGE_DIRECTORY));
     }
 
     public static void reset(Context context) {
         SharedPreferences sharedPreferences = context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
         sharedPreferences.edit().clear().apply();
+        try {
+            MessageStore store = openMessageStore(context);
+            store.clear();
+            store.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to remove messages", e);
+        }
     }
 
 }
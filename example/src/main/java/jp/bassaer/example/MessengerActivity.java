@@ -9,19 +9,26 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.provider.MediaStore;
 import android.support.v4.content.ContextCompat;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
 import com.github.bassaer.chatmessageview.models.Message;
+import com.github.bassaer.chatmessageview.models.PictureSource;
 import com.github.bassaer.chatmessageview.models.User;
+import com.github.bassaer.chatmessageview.store.MessageStore;
+import com.github.bassaer.chatmessageview.store.MessageStorePagingSource;
 import com.github.bassaer.chatmessageview.utils.ChatBot;
 import com.github.bassaer.chatmessageview.views.ChatView;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Simple chat example activity
@@ -29,11 +36,19 @@ import java.util.Random;
  */
 public class MessengerActivity extends Activity {
 
+    private static final String TAG = "MessengerActivity";
+
     private ChatView mChatView;
-    private MessageList mMessageList;
+    private MessageStore mMessageStore;
+    /**
+     * Messages are written and read in order on this thread
+     */
+    private final ExecutorService mStoreExecutor = Executors.newSingleThreadExecutor();
     private ArrayList<User> mUsers;
 
     private static final int READ_REQUEST_CODE = 100;
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_MESSAGE_COUNT = 200;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -111,7 +126,7 @@ public class MessengerActivity extends Activity {
             public void onClick(View view) {
                 initUsers();
                 //new message
-                Message message = new Message.Builder()
+                final Message message = new Message.Builder()
                         .setUser(mUsers.get(0))
                         .setRightMessage(true)
                         .setMessageText(mChatView.getInputText())
@@ -119,21 +134,26 @@ public class MessengerActivity extends Activity {
                         .setStatusIconFormatter(new MyMessageStatusFormatter(MessengerActivity.this))
                         .setStatusTextFormatter(new MyMessageStatusFormatter(MessengerActivity.this))
                         .setMessageStatusType(Message.MESSAGE_STATUS_ICON)
-                        .setStatus(MyMessageStatusFormatter.STATUS_DELIVERED)
+                        .setStatus(MyMessageStatusFormatter.STATUS_DELIVERING)
                         .build();
 
-                //Set random status(Delivering, delivered, seen or fail)
-                int messageStatus = new Random().nextInt(4);
-                message.setStatus(messageStatus);
-
                 //Set to chat view
                 mChatView.send(message);
-                //Add message list
-                mMessageList.add(message);
+                //Save message
+                saveMessage(message);
                 //Reset edit text
                 mChatView.setInputText("");
 
-                receiveMessage(message.getMessageText());
+                //Pretend the server has received the message
+                new Handler().postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        mChatView.updateStatus(message.getId(), MyMessageStatusFormatter.STATUS_DELIVERED);
+                        saveStatus(message, MyMessageStatusFormatter.STATUS_DELIVERED, false);
+                    }
+                }, 500);
+
+                receiveMessage(message);
             }
 
         });
@@ -160,7 +180,8 @@ public class MessengerActivity extends Activity {
 
     }
 
-    private void receiveMessage(String sendText) {
+    private void receiveMessage(final Message sentMessage) {
+        String sendText = sentMessage.getMessageText();
         //Ignore hey
         if (!sendText.contains("hey")) {
 
@@ -185,9 +206,12 @@ public class MessengerActivity extends Activity {
             new Handler().postDelayed(new Runnable() {
                 @Override
                 public void run() {
+                    //The bot has read all messages before replying
+                    mChatView.updateStatusUntil(sentMessage.getId(), MyMessageStatusFormatter.STATUS_SEEN);
+                    saveStatus(sentMessage, MyMessageStatusFormatter.STATUS_SEEN, true);
                     mChatView.receive(receivedMessage);
-                    //Add message list
-                    mMessageList.add(receivedMessage);
+                    //Save message
+                    saveMessage(receivedMessage);
                 }
             }, sendDelay);
         }
@@ -199,29 +223,53 @@ public class MessengerActivity extends Activity {
         if (requestCode != READ_REQUEST_CODE || resultCode != RESULT_OK || data == null) {
             return;
         }
-        Uri uri = data.getData();
-        try {
-            Bitmap picture = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-            Message message = new Message.Builder()
-                    .setRightMessage(true)
-                    .setMessageText(Message.Type.PICTURE.name())
-                    .setUser(mUsers.get(0))
-                    .hideIcon(true)
-                    .setPicture(picture)
-                    .setType(Message.Type.PICTURE)
-                    .setStatusIconFormatter(new MyMessageStatusFormatter(MessengerActivity.this))
-                    .setMessageStatusType(Message.MESSAGE_STATUS_ICON)
-                    .setStatus(MyMessageStatusFormatter.STATUS_DELIVERED)
-                    .build();
-            mChatView.send(message);
-            //Add message list
-            mMessageList.add(message);
-            receiveMessage(Message.Type.PICTURE.name());
-        } catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(this, getString(R.string.error), Toast.LENGTH_SHORT).show();
-        }
+        final Uri uri = data.getData();
+        //Copy the picture into the store once, so the message refers to it by the hash
+        mStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String hash;
+                try {
+                    InputStream inputStream = getContentResolver().openInputStream(uri);
+                    if (inputStream == null) {
+                        return;
+                    }
+                    try {
+                        hash = mMessageStore.getPictureStore().put(inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to save picture", e);
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendPicture(mMessageStore.getPictureStore().getThumbnailSource(hash));
+                    }
+                });
+            }
+        });
+    }
 
+    private void sendPicture(PictureSource source) {
+        //The picture is decoded in background at the size of the bubble
+        Message message = new Message.Builder()
+                .setRightMessage(true)
+                .setMessageText(Message.Type.PICTURE.name())
+                .setUser(mUsers.get(0))
+                .hideIcon(true)
+                .setPictureSource(source)
+                .setType(Message.Type.PICTURE)
+                .setStatusIconFormatter(new MyMessageStatusFormatter(MessengerActivity.this))
+                .setMessageStatusType(Message.MESSAGE_STATUS_ICON)
+                .setStatus(MyMessageStatusFormatter.STATUS_DELIVERED)
+                .build();
+        mChatView.send(message);
+        //Save message
+        saveMessage(message);
+        receiveMessage(message);
     }
 
     private void initUsers() {
@@ -245,35 +293,75 @@ public class MessengerActivity extends Activity {
     }
 
     /**
-     * Load saved messages
+     * Load saved messages page by page
      */
     private void loadMessages() {
-        mMessageList = AppData.getMessageList(this);
-        if (mMessageList == null) {
-            mMessageList = new MessageList();
-        } else {
-            for (int i = 0; i < mMessageList.size(); i++) {
-                Message message = mMessageList.get(i);
-                //Set extra info because they were removed before save messages.
-                for (User user : mUsers) {
-                    if (message.getUser().getId() == user.getId()) {
-                        message.getUser().setIcon(user.getIcon());
+        try {
+            mMessageStore = AppData.openMessageStore(this);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open messages", e);
+        }
+        final List<User> users = mUsers;
+        //Set extra info because they are not saved
+        mMessageStore.setUserResolver(new MessageStore.UserResolver() {
+            @Override
+            public User resolve(int id, String name) {
+                for (User user : users) {
+                    if (user.getId() == id) {
+                        return user;
                     }
                 }
-                if (!message.isDateCell()) {
-                    if (message.isRightMessage()) {
-                        message.hideIcon(true);
-                        mChatView.send(message);
+                return new User(id, name, null);
+            }
+        });
+        mMessageStore.setOnMessageRestoredListener(new MessageStore.OnMessageRestoredListener() {
+            @Override
+            public void onMessageRestored(Message message) {
+                message.setMessageStatusType(Message.MESSAGE_STATUS_ICON_RIGHT_ONLY);
+                message.setStatusIconFormatter(new MyMessageStatusFormatter(MessengerActivity.this));
+            }
+        });
+        mChatView.setPagingSource(new MessageStorePagingSource(mMessageStore, mStoreExecutor), PAGE_SIZE, MAX_MESSAGE_COUNT);
+    }
+
+    /**
+     * Append the message to the store
+     * @param message sent or received message
+     */
+    private void saveMessage(final Message message) {
+        mStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mMessageStore.add(message);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to save message", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Change the saved status
+     * @param message sent message
+     * @param status new status
+     * @param until true to change older right messages too
+     */
+    private void saveStatus(final Message message, final int status, final boolean until) {
+        mStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (until) {
+                        mMessageStore.updateStatusUntil(message, status);
                     } else {
-                        mChatView.receive(message);
+                        mMessageStore.updateStatus(message, status);
                     }
-
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to save status", e);
                 }
-                message.setMessageStatusType(Message.MESSAGE_STATUS_ICON_RIGHT_ONLY);
-                message.setStatusIconFormatter(new MyMessageStatusFormatter(this));
-                message.setStatus(MyMessageStatusFormatter.STATUS_DELIVERED);
             }
-        }
+        });
     }
 
     @Override
@@ -283,10 +371,20 @@ public class MessengerActivity extends Activity {
     }
 
     @Override
-    public void onPause() {
-        super.onPause();
-        //Save message
-        AppData.putMessageList(this, mMessageList);
+    public void onDestroy() {
+        super.onDestroy();
+        //Close after the pending writes
+        mStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mMessageStore.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close messages", e);
+                }
+            }
+        });
+        mStoreExecutor.shutdown();
     }
 
 }